@@ -0,0 +1,203 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Describes one backup of the data file and its name overflow file. Both are
+ * split into fixed-size pages with a CRC32 each; a page is either stored in the
+ * backup's {@code .pages} file or, for an incremental backup, left to the base
+ * backup it was taken against. The manifest itself is checksummed as a whole.
+ */
+public class BackupManifest {
+    public static final int PAGE_SIZE = 64 * 1024;
+    private static final int MAGIC = 0x5344424B; // "SDBK"
+    private static final int VERSION = 1;
+
+    /** Pages of one backed-up file. {@code locations[i]} is -1 if page i lives in the base backup. */
+    public static class Section {
+        final long length;
+        final int[] checksums;
+        final long[] locations;
+
+        Section(long length) {
+            this.length = length;
+            int pages = (int) ((length + PAGE_SIZE - 1) / PAGE_SIZE);
+            this.checksums = new int[pages];
+            this.locations = new long[pages];
+        }
+
+        int pageCount() {
+            return checksums.length;
+        }
+
+        int pageLength(int page) {
+            return (int) Math.min(PAGE_SIZE, length - (long) page * PAGE_SIZE);
+        }
+    }
+
+    final String base;
+    final Section data;
+    final Section overflow;
+
+    BackupManifest(String base, Section data, Section overflow) {
+        this.base = base;
+        this.data = data;
+        this.overflow = overflow;
+    }
+
+    public boolean isIncremental() {
+        return base != null;
+    }
+
+    public static Path manifestPath(String backupName) {
+        return Paths.get(backupName + ".manifest");
+    }
+
+    public static Path pagesPath(String backupName) {
+        return Paths.get(backupName + ".pages");
+    }
+
+    public static boolean exists(String backupName) {
+        return Files.exists(manifestPath(backupName));
+    }
+
+    public static int checksum(byte[] page, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(page, 0, length);
+        return (int) crc.getValue();
+    }
+
+    public void write(String backupName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(PAGE_SIZE);
+        out.writeUTF(base == null ? "" : base);
+        for (Section section : new Section[] {data, overflow}) {
+            out.writeLong(section.length);
+            for (int i = 0; i < section.pageCount(); i++) {
+                out.writeInt(section.checksums[i]);
+                out.writeLong(section.locations[i]);
+            }
+        }
+        byte[] body = bytes.toByteArray();
+        out.writeInt(checksum(body, body.length));
+
+        Path target = manifestPath(backupName);
+        Path tmp = Paths.get(target + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+            while (buf.hasRemaining()) channel.write(buf);
+            channel.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static BackupManifest read(String backupName) throws IOException {
+        byte[] bytes = Files.readAllBytes(manifestPath(backupName));
+        if (bytes.length < 4 || checksum(bytes, bytes.length - 4) != ByteBuffer.wrap(bytes, bytes.length - 4, 4).getInt()) {
+            throw new IOException("Corrupt backup manifest: " + manifestPath(backupName));
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 4));
+        if (in.readInt() != MAGIC) throw new IOException("Not a backup manifest: " + manifestPath(backupName));
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported backup version " + version);
+        if (in.readInt() != PAGE_SIZE) throw new IOException("Unsupported backup page size");
+        String base = in.readUTF();
+        Section[] sections = new Section[2];
+        for (int s = 0; s < sections.length; s++) {
+            Section section = new Section(in.readLong());
+            for (int i = 0; i < section.pageCount(); i++) {
+                section.checksums[i] = in.readInt();
+                section.locations[i] = in.readLong();
+            }
+            sections[s] = section;
+        }
+        return new BackupManifest(base.isEmpty() ? null : base, sections[0], sections[1]);
+    }
+
+    /**
+     * Reassembles the files described by {@code backupName} and its chain of base
+     * backups into {@code dataTarget} and {@code overflowTarget}, checking every page
+     * against its checksum. The overflow target is deleted if the backup has none.
+     */
+    public static void restore(String backupName, Path dataTarget, Path overflowTarget,
+                               ProgressListener progress) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<BackupManifest> chain = new ArrayList<>();
+        for (String name = backupName; name != null; name = chain.get(chain.size() - 1).base) {
+            if (names.contains(name)) throw new IOException("Backup chain loops at " + name);
+            names.add(name);
+            chain.add(read(name));
+        }
+        BackupManifest head = chain.get(0);
+        long total = head.data.pageCount() + head.overflow.pageCount();
+        List<FileChannel> pages = new ArrayList<>();
+        try {
+            for (String name : names) {
+                Path path = pagesPath(name);
+                pages.add(Files.exists(path) ? FileChannel.open(path, StandardOpenOption.READ) : null);
+            }
+            restoreSection(chain, pages, true, dataTarget, 0, total, progress);
+            if (head.overflow.length > 0) {
+                restoreSection(chain, pages, false, overflowTarget, head.data.pageCount(), total, progress);
+            } else {
+                Files.deleteIfExists(overflowTarget);
+            }
+        } finally {
+            for (FileChannel channel : pages) {
+                if (channel != null) channel.close();
+            }
+        }
+    }
+
+    private static void restoreSection(List<BackupManifest> chain, List<FileChannel> pages, boolean data,
+                                       Path target, long done, long total, ProgressListener progress) throws IOException {
+        Section head = data ? chain.get(0).data : chain.get(0).overflow;
+        byte[] page = new byte[PAGE_SIZE];
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < head.pageCount(); i++) {
+                if (progress != null && progress.isCancelled()) throw new InterruptedIOException("Restore cancelled");
+                int length = head.pageLength(i);
+                FileChannel source = null;
+                long location = -1;
+                for (int b = 0; b < chain.size() && source == null; b++) {
+                    Section section = data ? chain.get(b).data : chain.get(b).overflow;
+                    if (i >= section.pageCount()) break;
+                    if (section.locations[i] >= 0) {
+                        source = pages.get(b);
+                        location = section.locations[i];
+                    }
+                }
+                if (source == null) throw new IOException("Page " + i + " of " + target + " is missing from the backup chain");
+                readFully(source, location, ByteBuffer.wrap(page, 0, length));
+                if (checksum(page, length) != head.checksums[i]) {
+                    throw new IOException("Checksum mismatch in page " + i + " of " + target);
+                }
+                ByteBuffer buf = ByteBuffer.wrap(page, 0, length);
+                long position = (long) i * PAGE_SIZE;
+                while (buf.hasRemaining()) {
+                    out.write(buf, position + buf.position());
+                }
+                if (progress != null) progress.progress((double) (done + i + 1) / total);
+            }
+            out.force(true);
+        }
+    }
+
+    static void readFully(FileChannel channel, long position, ByteBuffer buf) throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position() - start) < 0) {
+                throw new EOFException("Unexpected end of " + channel);
+            }
+        }
+    }
+}
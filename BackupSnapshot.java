@@ -0,0 +1,84 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Point-in-time view of the data and overflow files for a hot backup. Writers
+ * call {@link #preserve} under the database write lock before they touch data
+ * pages, which keeps the original bytes of each page the first time it changes;
+ * the backup then reads every page from the saved copy or, if it was never
+ * written, straight from the file. Pages the backup has already read are not
+ * preserved again, so the extra memory is bounded by the pages written ahead of
+ * the copy. The overflow file is append-only, so its length alone pins it.
+ */
+class BackupSnapshot implements Closeable {
+    private final FileChannel data;
+    private final FileChannel overflow;
+    private final long dataLength;
+    private final long overflowLength;
+    private final Map<Integer, byte[]> preimages = new HashMap<>();
+    private volatile int nextPage;
+
+    BackupSnapshot(Path dataPath, long dataLength, Path overflowPath) throws IOException {
+        this.data = FileChannel.open(dataPath, StandardOpenOption.READ);
+        this.dataLength = dataLength;
+        if (Files.exists(overflowPath)) {
+            this.overflow = FileChannel.open(overflowPath, StandardOpenOption.READ);
+            this.overflowLength = overflow.size();
+        } else {
+            this.overflow = null;
+            this.overflowLength = 0;
+        }
+    }
+
+    long dataLength() {
+        return dataLength;
+    }
+
+    long overflowLength() {
+        return overflowLength;
+    }
+
+    /** Saves pages {@code [firstPage, lastPage]} of the data file before they are overwritten. */
+    void preserve(int firstPage, int lastPage) throws IOException {
+        int pages = (int) ((dataLength + BackupManifest.PAGE_SIZE - 1) / BackupManifest.PAGE_SIZE);
+        for (int page = Math.max(firstPage, nextPage); page <= lastPage && page < pages; page++) {
+            if (!preimages.containsKey(page)) {
+                preimages.put(page, readFile(data, dataLength, page));
+            }
+        }
+    }
+
+    /** Reads a data page as of the snapshot. Must be called under the database read lock. */
+    byte[] readDataPage(int page) throws IOException {
+        nextPage = page + 1;
+        byte[] saved = preimages.remove(page);
+        return saved != null ? saved : readFile(data, dataLength, page);
+    }
+
+    /** Marks a data page as handled without reading it, for pages known to match the base. */
+    void skipDataPage(int page) {
+        nextPage = page + 1;
+        preimages.remove(page);
+    }
+
+    byte[] readOverflowPage(int page) throws IOException {
+        return readFile(overflow, overflowLength, page);
+    }
+
+    private static byte[] readFile(FileChannel channel, long length, int page) throws IOException {
+        long position = (long) page * BackupManifest.PAGE_SIZE;
+        byte[] bytes = new byte[(int) Math.min(BackupManifest.PAGE_SIZE, length - position)];
+        BackupManifest.readFully(channel, position, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.close();
+        if (overflow != null) overflow.close();
+    }
+}
@@ -0,0 +1,36 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The last change feed sequence number a consumer has processed, kept in a small
+ * text file so it can resume with {@code load() + 1} after a restart. Saving
+ * replaces the file atomically, so a crash leaves either the old or the new value.
+ */
+public class ChangeCheckpoint {
+    private final Path file;
+
+    public ChangeCheckpoint(String path) {
+        this.file = Paths.get(path);
+    }
+
+    /** The saved sequence number, or 0 if nothing was saved yet. */
+    public long load() throws IOException {
+        if (!Files.exists(file)) return 0;
+        String text = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad checkpoint " + file + ": " + text, e);
+        }
+    }
+
+    public void save(long sequence) throws IOException {
+        Path tmp = Paths.get(file + ".tmp");
+        Files.write(tmp, Long.toString(sequence).getBytes(StandardCharsets.US_ASCII));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
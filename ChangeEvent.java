@@ -0,0 +1,44 @@
+/**
+ * One entry of the change feed of a {@link StudentDatabase}. Sequence numbers
+ * start at 1 and grow by one per event, in the order the changes were made.
+ * Events carry the full record before and after the change, so applying one
+ * twice is harmless.
+ */
+public class ChangeEvent {
+    public enum Type {
+        ADD, UPDATE, DELETE,
+        /** The database was cleared or restored from a backup; consumers must reload it. */
+        RESET
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final Student before;
+    private final Student after;
+
+    ChangeEvent(long sequence, Type type, Student before, Student after) {
+        this.sequence = sequence;
+        this.type = type;
+        this.before = before;
+        this.after = after;
+    }
+
+    public long getSequence() { return sequence; }
+    public Type getType() { return type; }
+
+    /** Id of the changed student, or -1 for {@link Type#RESET}. */
+    public int getStudentId() {
+        return after != null ? after.getStudentId() : before != null ? before.getStudentId() : -1;
+    }
+
+    /** The record before the change; null for {@link Type#ADD} and {@link Type#RESET}. */
+    public Student getBefore() { return before; }
+
+    /** The record after the change; null for {@link Type#DELETE} and {@link Type#RESET}. */
+    public Student getAfter() { return after; }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + type + (type == Type.RESET ? "" : " " + getStudentId());
+    }
+}
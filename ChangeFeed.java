@@ -0,0 +1,103 @@
+import java.io.*;
+
+/**
+ * Writer side of the change feed: {@link ChangeEvent}s appended to an
+ * {@link IndexJournal} under the database write lock and flushed when the lock
+ * is released. Each record is {@code [type][sequence:8][before][after]}, with
+ * students encoded as in {@link RedoLog}. Readers tail the file with
+ * {@link ChangeFeedReader}; in-process subscribers sleep in {@link #awaitAfter}
+ * until {@link #publish} wakes them.
+ */
+class ChangeFeed implements Closeable {
+    private final IndexJournal journal;
+    private final Object signal = new Object();
+    private long appended;
+    private long appendedBytes;
+    private volatile long published;
+    private volatile long publishedBytes;
+    private boolean closed;
+
+    ChangeFeed(String path, DatabaseMetrics.FileMetrics io) throws IOException {
+        this.journal = new IndexJournal(path, io, true);
+        journal.replay((op, in) -> appended = in.readLong());
+        appendedBytes = new File(path).length();
+        published = appended;
+        publishedBytes = appendedBytes;
+    }
+
+    /** Appends an event without flushing it; returns its sequence number. */
+    long append(ChangeEvent.Type type, Student before, Student after) throws IOException {
+        long sequence = ++appended;
+        appendedBytes += journal.append((byte) (type.ordinal() + 1), out -> {
+            out.writeLong(sequence);
+            RedoLog.writeStudent(out, before);
+            RedoLog.writeStudent(out, after);
+        });
+        return sequence;
+    }
+
+    /** Flushes the appended events to the file and wakes the subscribers waiting for them. */
+    void publish() throws IOException {
+        if (published == appended) return;
+        journal.flush();
+        synchronized (signal) {
+            publishedBytes = appendedBytes;
+            published = appended;
+            signal.notifyAll();
+        }
+    }
+
+    /** Sequence number of the last event readers can see, 0 if there is none. */
+    long lastSequence() {
+        return published;
+    }
+
+    /**
+     * Length of the file up to the end of event {@link #lastSequence()}, where a
+     * reader can start to see only later events. Read both under the database lock
+     * to get a matching pair.
+     */
+    long lastOffset() {
+        return publishedBytes;
+    }
+
+    /** Waits up to {@code timeoutMillis} for an event after {@code sequence}, or until the feed is closed. */
+    void awaitAfter(long sequence, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (signal) {
+            for (long left = timeoutMillis; published <= sequence && !closed && left > 0; left = deadline - System.currentTimeMillis()) {
+                signal.wait(left);
+            }
+        }
+    }
+
+    /** Wakes every waiting subscriber, e.g. so a closed one can exit. */
+    void wakeAll() {
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    static ChangeEvent decode(byte op, DataInput in) throws IOException {
+        ChangeEvent.Type[] types = ChangeEvent.Type.values();
+        if (op < 1 || op > types.length) throw new IOException("Bad change event type " + op);
+        long sequence = in.readLong();
+        Student before = RedoLog.readStudent(in);
+        Student after = RedoLog.readStudent(in);
+        return new ChangeEvent(sequence, types[op - 1], before, after);
+    }
+
+    /** Forces the published events to disk; safe to call without holding the database lock. */
+    void force() throws IOException {
+        journal.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+        synchronized (signal) {
+            closed = true;
+            signal.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Tails the change feed file of a {@link StudentDatabase} (see
+ * {@link StudentDatabase#getChangeFeedPath}), from this or another process.
+ * Only the file is read, so the reader never blocks the database. A record still
+ * being written is left for the next {@link #poll}; a damaged one fails the poll
+ * with an {@link IOException}.
+ *
+ * <pre>
+ * ChangeCheckpoint checkpoint = new ChangeCheckpoint("search.checkpoint");
+ * try (ChangeFeedReader reader = new ChangeFeedReader("students.changes", checkpoint.load() + 1)) {
+ *     while (running) {
+ *         ChangeEvent event = reader.poll(1, TimeUnit.SECONDS);
+ *         if (event == null) continue;
+ *         apply(event);
+ *         checkpoint.save(event.getSequence());
+ *     }
+ * }
+ * </pre>
+ */
+public class ChangeFeedReader implements Closeable {
+    private static final int HEADER_SIZE = 1 + 4;
+    private static final int CRC_SIZE = 4;
+    // an event holds at most two students with 64 KB names
+    private static final int MAX_PAYLOAD = 1 << 20;
+    private static final long MAX_BACKOFF_MILLIS = 50;
+
+    private final Path file;
+    private final long fromSequence;
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private long filePosition;
+    private ByteBuffer buf = ByteBuffer.allocate(1 << 16).limit(0);
+    private long position;
+
+    /** Starts at the first event numbered {@code fromSequence} or later; 1 reads the feed from the start. */
+    public ChangeFeedReader(String feedPath, long fromSequence) {
+        this(feedPath, fromSequence, 0);
+    }
+
+    /** Starts reading at byte {@code fileOffset}, which must be the start of a record, e.g. a {@link ChangeFeed#lastOffset()}. */
+    ChangeFeedReader(String feedPath, long fromSequence, long fileOffset) {
+        this.file = Paths.get(feedPath);
+        this.fromSequence = fromSequence;
+        this.filePosition = fileOffset;
+    }
+
+    /** Next event, or null if there is none yet. */
+    public ChangeEvent poll() throws IOException {
+        ChangeEvent event = next();
+        if (event != null) position = event.getSequence();
+        return event;
+    }
+
+    /** Next event, waiting up to {@code timeout} for one to be written; null if none was. */
+    public ChangeEvent poll(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long backoff = 1;
+        while (true) {
+            ChangeEvent event = poll();
+            if (event != null) return event;
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (left <= 0) return null;
+            Thread.sleep(Math.min(backoff, left));
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    /** Sequence number of the last event read, including skipped ones; 0 before the first. */
+    public long position() {
+        return position;
+    }
+
+    /** Byte offset in the file just past the last event read. */
+    long fileOffset() {
+        return filePosition;
+    }
+
+    /**
+     * Decodes the next record numbered {@code fromSequence} or later, or returns null
+     * if it is not completely written yet. Earlier records are skipped without
+     * decoding their students.
+     */
+    private ChangeEvent next() throws IOException {
+        if (channel == null) {
+            if (!Files.exists(file)) return null;
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        }
+        while (true) {
+            if (!fill(HEADER_SIZE)) return null;
+            int start = buf.position();
+            byte op = buf.get(start);
+            int length = buf.getInt(start + 1);
+            if (length < 0 || length > MAX_PAYLOAD) throw corrupt();
+            int size = HEADER_SIZE + length + CRC_SIZE;
+            if (!fill(size)) return null;
+            start = buf.position();
+            crc.reset();
+            crc.update(op);
+            crc.update(buf.array(), start + HEADER_SIZE, length);
+            if ((int) crc.getValue() != buf.getInt(start + HEADER_SIZE + length)) throw corrupt();
+            buf.position(start + size);
+            filePosition += size;
+            long sequence = buf.getLong(start + HEADER_SIZE);
+            if (sequence >= fromSequence) {
+                return ChangeFeed.decode(op, new DataInputStream(new ByteArrayInputStream(buf.array(), start + HEADER_SIZE, length)));
+            }
+            position = sequence;
+        }
+    }
+
+    /**
+     * A complete record that does not check out. The buffer is dropped, so a
+     * record the writer cut back and rewrote after a crash is read again.
+     */
+    private IOException corrupt() {
+        buf.limit(0);
+        return new IOException("Corrupt change feed record at byte " + filePosition + " of " + file);
+    }
+
+    /**
+     * Makes at least {@code bytes} bytes from {@code filePosition} on available in
+     * the buffer. If the file is shorter, the buffer is emptied so the record is
+     * read again from the file, which the writer may have cut back after a crash.
+     */
+    private boolean fill(int bytes) throws IOException {
+        if (buf.remaining() >= bytes) return true;
+        if (buf.capacity() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Integer.highestOneBit(bytes) << 1);
+            larger.put(buf);
+            buf = larger;
+        } else {
+            buf.compact();
+        }
+        while (buf.position() < bytes) {
+            if (channel.read(buf, filePosition + buf.position()) <= 0) break;
+        }
+        buf.flip();
+        if (buf.remaining() >= bytes) return true;
+        buf.limit(0);
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
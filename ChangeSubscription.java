@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * In-process consumer of the change feed, from {@link StudentDatabase#subscribe}.
+ * Events are read back from the feed file on a thread of its own and handed to
+ * the listener in sequence order, so a slow listener never holds up writers.
+ * When caught up, the thread sleeps until the database publishes more events.
+ * If the listener throws, the subscription stops; {@link #position} tells where
+ * to resubscribe from.
+ */
+public class ChangeSubscription {
+    private static final long IDLE_WAIT_MILLIS = 1000;
+
+    private final ChangeFeed feed;
+    private final ChangeFeedReader reader;
+    private final Consumer<ChangeEvent> listener;
+    private final Thread thread;
+    private final Consumer<ChangeSubscription> onClose;
+    private volatile boolean closed;
+    private volatile long delivered;
+
+    ChangeSubscription(ChangeFeed feed, ChangeFeedReader reader, Consumer<ChangeEvent> listener, Consumer<ChangeSubscription> onClose) {
+        this.feed = feed;
+        this.reader = reader;
+        this.listener = listener;
+        this.onClose = onClose;
+        this.thread = new Thread(this::run, "studentdb-changes");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                ChangeEvent event = reader.poll();
+                if (event == null) {
+                    feed.awaitAfter(reader.position(), IDLE_WAIT_MILLIS);
+                    continue;
+                }
+                listener.accept(event);
+                delivered = event.getSequence();
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            // interrupted by the application: stop like close()
+        } finally {
+            closed = true;
+            try {
+                reader.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            onClose.accept(this);
+        }
+    }
+
+    /** Sequence number of the last event the listener has processed, 0 before the first. */
+    public long position() {
+        return delivered;
+    }
+
+    /** False once closed, or stopped because the listener or the feed failed. */
+    public boolean isActive() {
+        return !closed;
+    }
+
+    /** Stops delivery and, unless called from the listener, waits for the event in progress to finish. */
+    public void close() {
+        closed = true;
+        feed.wakeAll();
+        if (Thread.currentThread() == thread) return;
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,437 @@
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Column-oriented copy of the student table for analytics, from
+ * {@link StudentDatabase#columnarSnapshot()}. Each field is one contiguous
+ * primitive array indexed by row, and names are dictionary-encoded as int codes,
+ * so an aggregate over one field reads only that array in a tight loop the JIT
+ * can unroll and vectorize. Rows are grouped into blocks of {@link #BLOCK_ROWS}
+ * with the min and max of every numeric field, which lets range aggregates skip
+ * whole blocks or take them without testing each row.
+ *
+ * <p>A snapshot remembers the change feed sequence it reflects, so
+ * {@link #refresh} can apply only the later changes. Deleted rows are filled
+ * with the last row, which keeps the columns dense; block bounds only ever
+ * widen, so after many updates they are still correct but looser.
+ *
+ * <p>Not thread-safe: refresh and read it from one thread, or guard it.
+ */
+public class ColumnarSnapshot {
+    public static final int BLOCK_ROWS = 4096;
+
+    private long sequence;
+    private long feedOffset;
+    private int rows;
+    private int[] ids;
+    private double[] gpas;
+    private int[] years;
+    private int[] nameCodes;
+    private List<String> dictionary = new ArrayList<>();
+    private Map<String, Integer> codesByName = new HashMap<>();
+    private int[] blockMinId;
+    private int[] blockMaxId;
+    private double[] blockMinGpa;
+    private double[] blockMaxGpa;
+    private int[] blockMinYear;
+    private int[] blockMaxYear;
+    private IntLongHashMap rowsById;
+
+    /**
+     * @param sequence the change feed sequence the rows will reflect, or -1 without a change feed
+     * @param feedOffset where the events after {@code sequence} start in the feed file
+     */
+    ColumnarSnapshot(long sequence, long feedOffset, int expectedRows) {
+        this.sequence = sequence;
+        this.feedOffset = feedOffset;
+        allocate(Math.max(expectedRows, 16));
+    }
+
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        gpas = new double[capacity];
+        years = new int[capacity];
+        nameCodes = new int[capacity];
+        int blocks = blockCount(capacity);
+        blockMinId = new int[blocks];
+        blockMaxId = new int[blocks];
+        blockMinGpa = new double[blocks];
+        blockMaxGpa = new double[blocks];
+        blockMinYear = new int[blocks];
+        blockMaxYear = new int[blocks];
+    }
+
+    private static int blockCount(int rows) {
+        return (rows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+    }
+
+    /** Change feed sequence the snapshot reflects, or -1 if it was taken without a change feed. */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public int blockCount() {
+        return blockCount(rows);
+    }
+
+    /** Student ids by row. The column arrays are copies of the first {@link #size()} rows. */
+    public int[] idColumn() {
+        return Arrays.copyOf(ids, rows);
+    }
+
+    public double[] gpaColumn() {
+        return Arrays.copyOf(gpas, rows);
+    }
+
+    public int[] yearColumn() {
+        return Arrays.copyOf(years, rows);
+    }
+
+    /** Name code by row; the name is {@code nameDictionary().get(code)}. */
+    public int[] nameCodeColumn() {
+        return Arrays.copyOf(nameCodes, rows);
+    }
+
+    public List<String> nameDictionary() {
+        return Collections.unmodifiableList(dictionary);
+    }
+
+    public Student row(int row) {
+        Objects.checkIndex(row, rows);
+        return new Student(ids[row], dictionary.get(nameCodes[row]), gpas[row], years[row]);
+    }
+
+    /** Count, sum, min, max and average of the GPA column. */
+    public DoubleSummaryStatistics gpaStatistics() {
+        return rowStatistics(0, rows);
+    }
+
+    /**
+     * GPA statistics of the students enrolled in {@code [fromYear, toYear]}. Blocks
+     * whose years all fall outside are skipped, blocks whose years all fall inside
+     * are aggregated without reading the year column.
+     */
+    public DoubleSummaryStatistics gpaStatistics(int fromYear, int toYear) {
+        long count = 0;
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int block = 0; block < blockCount(); block++) {
+            if (blockMaxYear[block] < fromYear || blockMinYear[block] > toYear) continue;
+            int from = block * BLOCK_ROWS;
+            int to = Math.min(from + BLOCK_ROWS, rows);
+            if (blockMinYear[block] >= fromYear && blockMaxYear[block] <= toYear) {
+                DoubleSummaryStatistics part = rowStatistics(from, to);
+                count += part.getCount();
+                sum += part.getSum();
+                min = Math.min(min, part.getMin());
+                max = Math.max(max, part.getMax());
+                continue;
+            }
+            for (int i = from; i < to; i++) {
+                if (years[i] < fromYear || years[i] > toYear) continue;
+                double gpa = gpas[i];
+                count++;
+                sum += gpa;
+                min = Math.min(min, gpa);
+                max = Math.max(max, gpa);
+            }
+        }
+        return count == 0 ? new DoubleSummaryStatistics() : new DoubleSummaryStatistics(count, min, max, sum);
+    }
+
+    private DoubleSummaryStatistics rowStatistics(int from, int to) {
+        if (from >= to) return new DoubleSummaryStatistics();
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            double gpa = gpas[i];
+            sum += gpa;
+            min = Math.min(min, gpa);
+            max = Math.max(max, gpa);
+        }
+        return new DoubleSummaryStatistics(to - from, min, max, sum);
+    }
+
+    /** Number of students with a GPA in {@code [minGpa, maxGpa]}, using the block bounds to skip or take whole blocks. */
+    public long countGpaBetween(double minGpa, double maxGpa) {
+        long count = 0;
+        for (int block = 0; block < blockCount(); block++) {
+            if (blockMaxGpa[block] < minGpa || blockMinGpa[block] > maxGpa) continue;
+            int from = block * BLOCK_ROWS;
+            int to = Math.min(from + BLOCK_ROWS, rows);
+            if (blockMinGpa[block] >= minGpa && blockMaxGpa[block] <= maxGpa) {
+                count += to - from;
+                continue;
+            }
+            for (int i = from; i < to; i++) {
+                count += gpas[i] >= minGpa & gpas[i] <= maxGpa ? 1 : 0;
+            }
+        }
+        return count;
+    }
+
+    /** GPA statistics per enrollment year, in ascending year order. */
+    public SortedMap<Integer, DoubleSummaryStatistics> gpaStatisticsByYear() {
+        SortedMap<Integer, DoubleSummaryStatistics> result = new TreeMap<>();
+        if (rows == 0) return result;
+        int minYear = Integer.MAX_VALUE;
+        int maxYear = Integer.MIN_VALUE;
+        for (int block = 0; block < blockCount(); block++) {
+            minYear = Math.min(minYear, blockMinYear[block]);
+            maxYear = Math.max(maxYear, blockMaxYear[block]);
+        }
+        if ((long) maxYear - minYear >= BLOCK_ROWS) {
+            for (int i = 0; i < rows; i++) {
+                result.computeIfAbsent(years[i], k -> new DoubleSummaryStatistics()).accept(gpas[i]);
+            }
+            return result;
+        }
+        int span = maxYear - minYear + 1;
+        long[] counts = new long[span];
+        double[] sums = new double[span];
+        double[] mins = new double[span];
+        double[] maxs = new double[span];
+        Arrays.fill(mins, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxs, Double.NEGATIVE_INFINITY);
+        for (int i = 0; i < rows; i++) {
+            int y = years[i] - minYear;
+            double gpa = gpas[i];
+            counts[y]++;
+            sums[y] += gpa;
+            mins[y] = Math.min(mins[y], gpa);
+            maxs[y] = Math.max(maxs[y], gpa);
+        }
+        for (int y = 0; y < span; y++) {
+            if (counts[y] > 0) result.put(minYear + y, new DoubleSummaryStatistics(counts[y], mins[y], maxs[y], sums[y]));
+        }
+        return result;
+    }
+
+    /** Number of students per exact name, counted on the name codes. */
+    public SortedMap<String, Long> countByName() {
+        long[] counts = new long[dictionary.size()];
+        for (int i = 0; i < rows; i++) {
+            counts[nameCodes[i]]++;
+        }
+        SortedMap<String, Long> result = new TreeMap<>();
+        for (int code = 0; code < counts.length; code++) {
+            if (counts[code] > 0) result.merge(dictionary.get(code), counts[code], Long::sum);
+        }
+        return result;
+    }
+
+    void append(Student s) {
+        if (rows == ids.length) grow();
+        int row = rows++;
+        if (rowsById != null) rowsById.put(s.getStudentId(), row);
+        set(row, s.getStudentId(), s.getGpa(), s.getEnrollmentYear(), codeOf(s.getName()), row % BLOCK_ROWS == 0);
+    }
+
+    /** Writes a row and widens its block's bounds, or resets them if it is the {@code first} row of the block. */
+    private void set(int row, int id, double gpa, int year, int nameCode, boolean first) {
+        ids[row] = id;
+        gpas[row] = gpa;
+        years[row] = year;
+        nameCodes[row] = nameCode;
+        int block = row / BLOCK_ROWS;
+        if (first) {
+            blockMinId[block] = blockMaxId[block] = id;
+            blockMinGpa[block] = blockMaxGpa[block] = gpa;
+            blockMinYear[block] = blockMaxYear[block] = year;
+        } else {
+            blockMinId[block] = Math.min(blockMinId[block], id);
+            blockMaxId[block] = Math.max(blockMaxId[block], id);
+            blockMinGpa[block] = Math.min(blockMinGpa[block], gpa);
+            blockMaxGpa[block] = Math.max(blockMaxGpa[block], gpa);
+            blockMinYear[block] = Math.min(blockMinYear[block], year);
+            blockMaxYear[block] = Math.max(blockMaxYear[block], year);
+        }
+    }
+
+    private int codeOf(String name) {
+        Integer code = codesByName.get(name);
+        if (code != null) return code;
+        dictionary.add(name);
+        codesByName.put(name, dictionary.size() - 1);
+        return dictionary.size() - 1;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        gpas = Arrays.copyOf(gpas, capacity);
+        years = Arrays.copyOf(years, capacity);
+        nameCodes = Arrays.copyOf(nameCodes, capacity);
+        int blocks = blockCount(capacity);
+        blockMinId = Arrays.copyOf(blockMinId, blocks);
+        blockMaxId = Arrays.copyOf(blockMaxId, blocks);
+        blockMinGpa = Arrays.copyOf(blockMinGpa, blocks);
+        blockMaxGpa = Arrays.copyOf(blockMaxGpa, blocks);
+        blockMinYear = Arrays.copyOf(blockMinYear, blocks);
+        blockMaxYear = Arrays.copyOf(blockMaxYear, blocks);
+    }
+
+    /**
+     * Brings the snapshot up to date with {@code db}. If both were opened with
+     * {@link DatabaseOptions#changeFeed}, only the events after {@link #getSequence()}
+     * are applied, read from the feed file where the snapshot left off, so the cost
+     * is proportional to the number of changes. The snapshot is
+     * rebuilt from the data file instead without a change feed, after a
+     * {@link ChangeEvent.Type#RESET} or if the feed does not continue where the
+     * snapshot left off.
+     *
+     * @return the number of change events applied, or -1 if the snapshot was rebuilt
+     */
+    public long refresh(StudentDatabase db) throws IOException {
+        long target = db.lastChangeSequence();
+        if (sequence < 0 || target < sequence) return rebuild(db);
+        long applied = 0;
+        try (ChangeFeedReader reader = new ChangeFeedReader(db.getChangeFeedPath(), sequence + 1, feedOffset)) {
+            while (sequence < target) {
+                ChangeEvent event = reader.poll();
+                if (event == null || event.getSequence() != sequence + 1 || event.getType() == ChangeEvent.Type.RESET) {
+                    return rebuild(db);
+                }
+                apply(event);
+                sequence = event.getSequence();
+                applied++;
+            }
+            feedOffset = reader.fileOffset();
+        }
+        return applied;
+    }
+
+    private long rebuild(StudentDatabase db) throws IOException {
+        ColumnarSnapshot fresh = db.columnarSnapshot();
+        sequence = fresh.sequence;
+        feedOffset = fresh.feedOffset;
+        rows = fresh.rows;
+        ids = fresh.ids;
+        gpas = fresh.gpas;
+        years = fresh.years;
+        nameCodes = fresh.nameCodes;
+        dictionary = fresh.dictionary;
+        codesByName = fresh.codesByName;
+        blockMinId = fresh.blockMinId;
+        blockMaxId = fresh.blockMaxId;
+        blockMinGpa = fresh.blockMinGpa;
+        blockMaxGpa = fresh.blockMaxGpa;
+        blockMinYear = fresh.blockMinYear;
+        blockMaxYear = fresh.blockMaxYear;
+        rowsById = null;
+        return -1;
+    }
+
+    /** Applies one event; events carry whole records, so one seen twice changes nothing. */
+    private void apply(ChangeEvent event) {
+        if (rowsById == null) {
+            rowsById = new IntLongHashMap(rows);
+            for (int i = 0; i < rows; i++) {
+                rowsById.put(ids[i], i);
+            }
+        }
+        int row = (int) rowsById.get(event.getStudentId(), -1L);
+        if (event.getType() == ChangeEvent.Type.DELETE) {
+            if (row >= 0) removeRow(row);
+        } else if (row >= 0) {
+            Student s = event.getAfter();
+            set(row, s.getStudentId(), s.getGpa(), s.getEnrollmentYear(), codeOf(s.getName()), false);
+        } else {
+            append(event.getAfter());
+        }
+    }
+
+    /** Moves the last row into {@code row}, so the columns stay dense. */
+    private void removeRow(int row) {
+        rowsById.remove(ids[row]);
+        int last = --rows;
+        if (row != last) {
+            set(row, ids[last], gpas[last], years[last], nameCodes[last], false);
+            rowsById.put(ids[row], row);
+        }
+    }
+
+    /**
+     * Writes the snapshot to {@code path} in the checksummed layout of the index
+     * snapshots: the feed position, the name dictionary, the four columns one after
+     * another and the block bounds. {@link #read} loads it back.
+     */
+    public void export(String path) throws IOException {
+        IndexFile.write(Paths.get(path), rows, out -> {
+            out.writeInt(BLOCK_ROWS);
+            out.writeLong(sequence);
+            out.writeLong(feedOffset);
+            out.writeInt(dictionary.size());
+            for (String name : dictionary) {
+                RecordFormat.writeName(out, name);
+            }
+            int blocks = blockCount();
+            writeInts(out, ids, rows);
+            ByteBuffer buf = ByteBuffer.allocate(rows * 8);
+            buf.asDoubleBuffer().put(gpas, 0, rows);
+            out.write(buf.array());
+            writeInts(out, years, rows);
+            writeInts(out, nameCodes, rows);
+            writeInts(out, blockMinId, blocks);
+            writeInts(out, blockMaxId, blocks);
+            buf = ByteBuffer.allocate(blocks * 16);
+            buf.asDoubleBuffer().put(blockMinGpa, 0, blocks).put(blockMaxGpa, 0, blocks);
+            out.write(buf.array());
+            writeInts(out, blockMinYear, blocks);
+            writeInts(out, blockMaxYear, blocks);
+        }, null);
+    }
+
+    private static void writeInts(DataOutput out, int[] values, int count) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(count * 4);
+        buf.asIntBuffer().put(values, 0, count);
+        out.write(buf.array());
+    }
+
+    /** Loads a snapshot written by {@link #export}. */
+    public static ColumnarSnapshot read(String path) throws IOException {
+        IndexFile.Contents contents = IndexFile.read(Paths.get(path), null);
+        if (contents == null) throw new IOException("Not a columnar snapshot: " + path);
+        ByteBuffer body = contents.body;
+        int rows = (int) contents.entries;
+        if (body.getInt() != BLOCK_ROWS) throw new IOException("Unsupported block size in " + path);
+        ColumnarSnapshot snapshot = new ColumnarSnapshot(body.getLong(), body.getLong(), rows);
+        int names = body.getInt();
+        ByteArrayInputStream dictionary = new ByteArrayInputStream(body.array(), body.position(), body.remaining());
+        DataInputStream in = new DataInputStream(dictionary);
+        for (int i = 0; i < names; i++) {
+            snapshot.codeOf(RecordFormat.readName(in));
+        }
+        body.position(body.limit() - dictionary.available());
+        int blocks = blockCount(rows);
+        snapshot.rows = rows;
+        readInts(body, snapshot.ids, rows);
+        body.asDoubleBuffer().get(snapshot.gpas, 0, rows);
+        body.position(body.position() + rows * 8);
+        readInts(body, snapshot.years, rows);
+        readInts(body, snapshot.nameCodes, rows);
+        readInts(body, snapshot.blockMinId, blocks);
+        readInts(body, snapshot.blockMaxId, blocks);
+        body.asDoubleBuffer().get(snapshot.blockMinGpa, 0, blocks).get(snapshot.blockMaxGpa, 0, blocks);
+        body.position(body.position() + blocks * 16);
+        readInts(body, snapshot.blockMinYear, blocks);
+        readInts(body, snapshot.blockMaxYear, blocks);
+        return snapshot;
+    }
+
+    private static void readInts(ByteBuffer body, int[] values, int count) {
+        body.asIntBuffer().get(values, 0, count);
+        body.position(body.position() + count * 4);
+    }
+}
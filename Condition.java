@@ -0,0 +1,410 @@
+import java.util.*;
+
+/**
+ * Predicate over students for {@link Query}. Leaves compare one field and are
+ * answered from its index; {@link #and} and {@link #or} combine them. Every
+ * condition can also test a record directly, which is how the planner checks
+ * the parts it did not use an index for. GPAs are compared at the 0.01
+ * precision of the GPA index (the value {@link StudentDatabase#encodeGpa} gives),
+ * so GPA and year conditions are answered exactly by their indexes and, with
+ * {@link DatabaseOptions#bitmapIndexes}, counted without reading any records.
+ *
+ * <pre>
+ * Condition c = Condition.yearEquals(2024)
+ *         .and(Condition.gpaAtLeast(3.5))
+ *         .and(Condition.nameStartsWith("A"));
+ * </pre>
+ */
+public abstract class Condition {
+    Condition() {
+    }
+
+    public static Condition idEquals(int studentId) {
+        return new IdEquals(studentId);
+    }
+
+    public static Condition nameEquals(String name) {
+        return new NameEquals(name, false);
+    }
+
+    public static Condition nameEqualsIgnoreCase(String name) {
+        return new NameEquals(name, true);
+    }
+
+    /** Case-insensitive, like {@link StudentDatabase#findStudentsByNamePrefix(String)}. */
+    public static Condition nameStartsWith(String prefix) {
+        return new NamePrefix(prefix);
+    }
+
+    public static Condition gpaEquals(double gpa) {
+        return new GpaRange(gpa, gpa);
+    }
+
+    /** Inclusive on both ends. */
+    public static Condition gpaBetween(double min, double max) {
+        return new GpaRange(min, max);
+    }
+
+    public static Condition gpaAtLeast(double min) {
+        return new GpaRange(min, Double.POSITIVE_INFINITY);
+    }
+
+    public static Condition gpaAtMost(double max) {
+        return new GpaRange(Double.NEGATIVE_INFINITY, max);
+    }
+
+    public static Condition yearEquals(int year) {
+        return new YearRange(year, year);
+    }
+
+    /** Inclusive on both ends. */
+    public static Condition yearBetween(int fromYear, int toYear) {
+        return new YearRange(fromYear, toYear);
+    }
+
+    public Condition and(Condition other) {
+        return new And(this, other);
+    }
+
+    public Condition or(Condition other) {
+        return new Or(this, other);
+    }
+
+    /** True if the record matches; the final check for every candidate the indexes return. */
+    abstract boolean test(Student s);
+
+    /** Upper bound on the number of matching records, from index counts alone. */
+    abstract long estimate(QueryPlanner planner);
+
+    /** Sorted, distinct offsets of a superset of the matching records. */
+    abstract long[] offsets(QueryPlanner planner);
+
+    /** Exactly the matching slots, if every part of the condition has a bitmap index; null otherwise. */
+    SlotBitmap bitmap(QueryPlanner planner) {
+        return null;
+    }
+
+    /** Describes how {@link #offsets} is answered, for {@link StudentDatabase#explain}. */
+    abstract void describe(QueryPlanner planner, StringBuilder out);
+
+    private static final class IdEquals extends Condition {
+        private final int studentId;
+
+        IdEquals(int studentId) {
+            this.studentId = studentId;
+        }
+
+        @Override
+        boolean test(Student s) {
+            return s.getStudentId() == studentId;
+        }
+
+        @Override
+        long estimate(QueryPlanner planner) {
+            return planner.idIndex.contains(studentId) ? 1 : 0;
+        }
+
+        @Override
+        long[] offsets(QueryPlanner planner) {
+            long offset = planner.idIndex.findOffset(studentId);
+            return offset == -1 ? new long[0] : new long[] {offset};
+        }
+
+        @Override
+        void describe(QueryPlanner planner, StringBuilder out) {
+            out.append("id = ").append(studentId);
+        }
+    }
+
+    private static final class NameEquals extends Condition {
+        private final String name;
+        private final boolean ignoreCase;
+
+        NameEquals(String name, boolean ignoreCase) {
+            this.name = name.trim();
+            this.ignoreCase = ignoreCase;
+        }
+
+        @Override
+        boolean test(Student s) {
+            return ignoreCase ? s.getName().trim().equalsIgnoreCase(name) : s.getName().equals(name);
+        }
+
+        @Override
+        long estimate(QueryPlanner planner) {
+            return planner.nameIndex.countIgnoreCase(name);
+        }
+
+        @Override
+        long[] offsets(QueryPlanner planner) {
+            return QueryPlanner.toSortedArray(ignoreCase
+                    ? planner.nameIndex.getOffsetsIgnoreCase(name) : planner.nameIndex.getOffsets(name));
+        }
+
+        @Override
+        void describe(QueryPlanner planner, StringBuilder out) {
+            out.append("name ").append(ignoreCase ? "equalsIgnoreCase" : "=").append(" '").append(name).append('\'');
+        }
+    }
+
+    private static final class NamePrefix extends Condition {
+        private final String prefix;
+
+        NamePrefix(String prefix) {
+            this.prefix = NameIndex.normalize(prefix);
+        }
+
+        @Override
+        boolean test(Student s) {
+            return NameIndex.normalize(s.getName()).startsWith(prefix);
+        }
+
+        @Override
+        long estimate(QueryPlanner planner) {
+            return planner.nameIndex.countByPrefix(prefix, planner.liveCount());
+        }
+
+        @Override
+        long[] offsets(QueryPlanner planner) {
+            return QueryPlanner.toSortedArray(planner.nameIndex.getOffsetsByPrefix(prefix, Integer.MAX_VALUE));
+        }
+
+        @Override
+        void describe(QueryPlanner planner, StringBuilder out) {
+            out.append("name startsWith '").append(prefix).append('\'');
+        }
+    }
+
+    private static final class GpaRange extends Condition {
+        private final double min;
+        private final double max;
+
+        GpaRange(double min, double max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        boolean test(Student s) {
+            long key = StudentDatabase.encodeGpa(s.getGpa());
+            return key >= fromKey() && key <= toKey();
+        }
+
+        private long fromKey() {
+            return min == Double.NEGATIVE_INFINITY ? Long.MIN_VALUE : StudentDatabase.encodeGpa(min);
+        }
+
+        private long toKey() {
+            return max == Double.POSITIVE_INFINITY ? Long.MAX_VALUE : StudentDatabase.encodeGpa(max);
+        }
+
+        @Override
+        long estimate(QueryPlanner planner) {
+            return planner.gpaIndex.countInRange(fromKey(), toKey());
+        }
+
+        @Override
+        long[] offsets(QueryPlanner planner) {
+            return QueryPlanner.toSortedArray(planner.gpaIndex.getOffsetsInRange(fromKey(), toKey()));
+        }
+
+        @Override
+        SlotBitmap bitmap(QueryPlanner planner) {
+            return planner.gpaIndex.bitmapInRange(fromKey(), toKey());
+        }
+
+        @Override
+        void describe(QueryPlanner planner, StringBuilder out) {
+            if (min == max) {
+                out.append("gpa = ").append(min);
+            } else {
+                out.append("gpa in [").append(min).append(", ").append(max).append(']');
+            }
+        }
+    }
+
+    private static final class YearRange extends Condition {
+        private final int fromYear;
+        private final int toYear;
+
+        YearRange(int fromYear, int toYear) {
+            this.fromYear = fromYear;
+            this.toYear = toYear;
+        }
+
+        @Override
+        boolean test(Student s) {
+            return s.getEnrollmentYear() >= fromYear && s.getEnrollmentYear() <= toYear;
+        }
+
+        @Override
+        long estimate(QueryPlanner planner) {
+            return planner.yearIndex.countInRange(fromYear, toYear);
+        }
+
+        @Override
+        long[] offsets(QueryPlanner planner) {
+            return QueryPlanner.toSortedArray(planner.yearIndex.getOffsetsInRange(fromYear, toYear));
+        }
+
+        @Override
+        SlotBitmap bitmap(QueryPlanner planner) {
+            return planner.yearIndex.bitmapInRange(fromYear, toYear);
+        }
+
+        @Override
+        void describe(QueryPlanner planner, StringBuilder out) {
+            if (fromYear == toYear) {
+                out.append("year = ").append(fromYear);
+            } else {
+                out.append("year in [").append(fromYear).append(", ").append(toYear).append(']');
+            }
+        }
+    }
+
+    /**
+     * Intersects the children that have bitmaps first, then starts from the
+     * smallest candidate set and intersects the other children in order of
+     * estimate while they are small enough to be worth fetching; the rest are
+     * left to {@link #test} on the records read.
+     */
+    private static final class And extends Condition {
+        private final Condition left;
+        private final Condition right;
+
+        And(Condition left, Condition right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(Student s) {
+            return left.test(s) && right.test(s);
+        }
+
+        @Override
+        long estimate(QueryPlanner planner) {
+            SlotBitmap bitmap = planner.bitmap(this);
+            if (bitmap != null) return bitmap.cardinality();
+            long estimate = Long.MAX_VALUE;
+            for (Condition child : children()) {
+                estimate = Math.min(estimate, planner.estimate(child));
+            }
+            return estimate;
+        }
+
+        @Override
+        SlotBitmap bitmap(QueryPlanner planner) {
+            SlotBitmap result = null;
+            for (Condition child : children()) {
+                SlotBitmap bitmap = planner.bitmap(child);
+                if (bitmap == null) return null;
+                result = result == null ? bitmap : result.and(bitmap);
+            }
+            return result;
+        }
+
+        @Override
+        long[] offsets(QueryPlanner planner) {
+            SlotBitmap cohort = null;
+            List<Condition> rest = new ArrayList<>();
+            for (Condition child : children()) {
+                SlotBitmap bitmap = planner.bitmap(child);
+                if (bitmap == null) {
+                    rest.add(child);
+                } else {
+                    cohort = cohort == null ? bitmap : cohort.and(bitmap);
+                }
+            }
+            if (rest.isEmpty()) return planner.toOffsets(cohort);
+            rest = planner.bySelectivity(rest);
+            long[] result = null;
+            if (cohort != null && cohort.cardinality() <= planner.estimate(rest.get(0))) {
+                result = planner.toOffsets(cohort);
+                cohort = null;
+            }
+            for (Condition child : rest) {
+                if (result != null && (result.length == 0 || !planner.worthIntersecting(result.length, planner.estimate(child)))) break;
+                long[] offsets = planner.offsets(child);
+                result = result == null ? offsets : QueryPlanner.intersect(result, offsets);
+            }
+            return cohort == null ? result : planner.filter(result, cohort);
+        }
+
+        @Override
+        void describe(QueryPlanner planner, StringBuilder out) {
+            long candidates = -1;
+            String separator = "";
+            out.append('(');
+            for (Condition child : planner.bySelectivity(children())) {
+                long estimate = planner.estimate(child);
+                boolean bitmap = planner.bitmap(child) != null;
+                boolean indexed = bitmap || candidates < 0 || planner.worthIntersecting(candidates, estimate);
+                out.append(separator);
+                if (bitmap) out.append("bitmap ");
+                if (!indexed) out.append("filter ");
+                child.describe(planner, out);
+                out.append(" ~").append(estimate);
+                if (indexed) candidates = candidates < 0 ? estimate : Math.min(candidates, estimate);
+                separator = " AND ";
+            }
+            out.append(')');
+        }
+
+        /** Flattens nested ANDs so the planner can order all of them together. */
+        List<Condition> children() {
+            List<Condition> children = new ArrayList<>();
+            for (Condition child : new Condition[] {left, right}) {
+                if (child instanceof And) {
+                    children.addAll(((And) child).children());
+                } else {
+                    children.add(child);
+                }
+            }
+            return children;
+        }
+    }
+
+    private static final class Or extends Condition {
+        private final Condition left;
+        private final Condition right;
+
+        Or(Condition left, Condition right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean test(Student s) {
+            return left.test(s) || right.test(s);
+        }
+
+        @Override
+        long estimate(QueryPlanner planner) {
+            SlotBitmap bitmap = planner.bitmap(this);
+            if (bitmap != null) return bitmap.cardinality();
+            return Math.min(planner.liveCount(), planner.estimate(left) + planner.estimate(right));
+        }
+
+        @Override
+        SlotBitmap bitmap(QueryPlanner planner) {
+            SlotBitmap a = planner.bitmap(left);
+            SlotBitmap b = a == null ? null : planner.bitmap(right);
+            return b == null ? null : a.or(b);
+        }
+
+        @Override
+        long[] offsets(QueryPlanner planner) {
+            return QueryPlanner.union(planner.offsets(left), planner.offsets(right));
+        }
+
+        @Override
+        void describe(QueryPlanner planner, StringBuilder out) {
+            out.append('(');
+            left.describe(planner, out);
+            out.append(" ~").append(planner.estimate(left)).append(" OR ");
+            right.describe(planner, out);
+            out.append(" ~").append(planner.estimate(right)).append(')');
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Operation counters, latency histograms and per-file byte counts of one
+ * {@link StudentDatabase}. Only created when enabled in {@link DatabaseOptions};
+ * with metrics off the database holds no instance and every probe is a null check.
+ */
+public class DatabaseMetrics implements DatabaseMetricsMXBean {
+    public enum Operation {
+        ADD, ADD_BULK, UPDATE, DELETE, DELETE_BY_FIELD, COMMIT,
+        FIND_BY_ID, FIND_BY_FIELD, FIND_BY_NAME, RANGE_QUERY, TOP_N, QUERY, COUNT,
+        SCAN, AGGREGATE, RECORD_READ, INDEX_SNAPSHOT, FORCE,
+        COMPACT, BACKUP, RESTORE
+    }
+
+    public enum FileKind {
+        DATA, ID_INDEX, NAME_INDEX, GPA_INDEX, YEAR_INDEX, REDO_LOG, CHANGE_FEED
+    }
+
+    /** Byte counters of one file; index snapshots and journals count towards their index. */
+    public final class FileMetrics {
+        private final LongAdder read = new LongAdder();
+        private final LongAdder written = new LongAdder();
+
+        public void read(long bytes) {
+            read.add(bytes);
+        }
+
+        public void written(long bytes) {
+            written.add(bytes);
+        }
+
+        /** Records the time an index snapshot write took, started at {@code startNanos}. */
+        public void snapshotWritten(long startNanos) {
+            record(Operation.INDEX_SNAPSHOT, startNanos);
+        }
+    }
+
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final Map<FileKind, FileMetrics> files = new EnumMap<>(FileKind.class);
+
+    public DatabaseMetrics() {
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+        for (FileKind kind : FileKind.values()) {
+            files.put(kind, new FileMetrics());
+        }
+    }
+
+    public void record(Operation operation, long startNanos) {
+        latencies.get(operation).record(System.nanoTime() - startNanos);
+    }
+
+    public FileMetrics file(FileKind kind) {
+        return files.get(kind);
+    }
+
+    public MetricsSnapshot snapshot() {
+        Map<Operation, MetricsSnapshot.OperationStats> operations = new EnumMap<>(Operation.class);
+        latencies.forEach((operation, histogram) -> {
+            long count = histogram.count();
+            long[] p = histogram.percentiles(0.5, 0.9, 0.99, 0.999);
+            operations.put(operation, new MetricsSnapshot.OperationStats(count,
+                    count == 0 ? 0 : histogram.totalNanos() / 1e3 / count,
+                    p[0] / 1e3, p[1] / 1e3, p[2] / 1e3, p[3] / 1e3, histogram.maxNanos() / 1e3));
+        });
+        Map<FileKind, MetricsSnapshot.FileStats> io = new EnumMap<>(FileKind.class);
+        files.forEach((kind, file) -> io.put(kind, new MetricsSnapshot.FileStats(file.read.sum(), file.written.sum())));
+        return new MetricsSnapshot(operations, io);
+    }
+
+    @Override
+    public Map<String, MetricsSnapshot.OperationStats> getOperations() {
+        Map<String, MetricsSnapshot.OperationStats> result = new LinkedHashMap<>();
+        snapshot().getOperations().forEach((operation, stats) -> result.put(operation.name(), stats));
+        return result;
+    }
+
+    @Override
+    public Map<String, MetricsSnapshot.FileStats> getFiles() {
+        Map<String, MetricsSnapshot.FileStats> result = new LinkedHashMap<>();
+        snapshot().getFiles().forEach((kind, stats) -> result.put(kind.name(), stats));
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        latencies.values().forEach(LatencyHistogram::reset);
+        files.values().forEach(file -> {
+            file.read.reset();
+            file.written.reset();
+        });
+    }
+}
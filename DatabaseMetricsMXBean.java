@@ -0,0 +1,10 @@
+import java.util.Map;
+
+/** JMX view of a {@link StudentDatabase}'s metrics, registered when metrics are enabled. */
+public interface DatabaseMetricsMXBean {
+    Map<String, MetricsSnapshot.OperationStats> getOperations();
+
+    Map<String, MetricsSnapshot.FileStats> getFiles();
+
+    void reset();
+}
@@ -0,0 +1,110 @@
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tuning knobs for {@link StudentDatabase}. Setters return {@code this} so options
+ * can be chained: {@code new DatabaseOptions().memoryMapped(true)}.
+ */
+public class DatabaseOptions {
+    private boolean memoryMapped;
+    private int cacheSize = 10_000;
+    private boolean metricsEnabled;
+    private boolean bitmapIndexes;
+    private boolean changeFeed;
+    private Durability durability = Durability.ASYNC;
+    private long groupCommitWindowNanos = TimeUnit.MILLISECONDS.toNanos(2);
+    private int groupCommitMaxBatch = 256;
+
+    public DatabaseOptions memoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        return this;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /** Maximum number of records kept in the id lookup cache; 0 disables it. */
+    public DatabaseOptions cacheSize(int cacheSize) {
+        if (cacheSize < 0) throw new IllegalArgumentException("cacheSize must be >= 0");
+        this.cacheSize = cacheSize;
+        return this;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Collects operation latencies and per-file byte counts, readable through
+     * {@link StudentDatabase#getMetrics()} and a JMX MXBean. Off by default.
+     */
+    public DatabaseOptions metricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+        return this;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Also keeps the GPA and year indexes as compressed bitmaps of record slots, so
+     * {@link StudentDatabase#count} and {@link StudentDatabase#countByYear} on GPA and
+     * year conditions never read records. Built in memory when the database opens.
+     * Off by default.
+     */
+    public DatabaseOptions bitmapIndexes(boolean bitmapIndexes) {
+        this.bitmapIndexes = bitmapIndexes;
+        return this;
+    }
+
+    public boolean isBitmapIndexes() {
+        return bitmapIndexes;
+    }
+
+    /**
+     * Records every add, update and delete in a change feed file next to the data
+     * file, for {@link StudentDatabase#subscribe} and {@link ChangeFeedReader}.
+     * Off by default.
+     */
+    public DatabaseOptions changeFeed(boolean changeFeed) {
+        this.changeFeed = changeFeed;
+        return this;
+    }
+
+    public boolean isChangeFeed() {
+        return changeFeed;
+    }
+
+    /** When writes are forced to disk; {@link Durability#ASYNC} (never forced) by default. */
+    public DatabaseOptions durability(Durability durability) {
+        this.durability = Objects.requireNonNull(durability);
+        return this;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Window for {@link Durability#GROUP_COMMIT}: a force waits at most {@code window}
+     * for more writers to join, or until {@code maxBatch} writes are pending. The
+     * default is 2 ms or 256 writes.
+     */
+    public DatabaseOptions groupCommit(long window, TimeUnit unit, int maxBatch) {
+        if (window < 0) throw new IllegalArgumentException("window must be >= 0");
+        if (maxBatch < 1) throw new IllegalArgumentException("maxBatch must be >= 1");
+        this.groupCommitWindowNanos = unit.toNanos(window);
+        this.groupCommitMaxBatch = maxBatch;
+        return this;
+    }
+
+    public long getGroupCommitWindowNanos() {
+        return groupCommitWindowNanos;
+    }
+
+    public int getGroupCommitMaxBatch() {
+        return groupCommitMaxBatch;
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * When a write is forced to disk before the call that made it returns.
+ *
+ * <ul>
+ * <li>{@link #SYNC_EACH}: every write waits for a force that started after it.
+ * <li>{@link #GROUP_COMMIT}: writers wait up to a time window (or until a batch is
+ * full) and share one force, trading a little latency for throughput.
+ * <li>{@link #ASYNC}: writes are handed to the OS and never forced; a crash may
+ * lose the most recent ones.
+ * </ul>
+ */
+public enum Durability {
+    SYNC_EACH, GROUP_COMMIT, ASYNC
+}
@@ -0,0 +1,111 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Record store over a {@link FileChannel} using positional reads and writes only,
+ * so there is no shared file pointer and concurrent readers do not interfere.
+ */
+public class FileRecordStore implements RecordStore {
+    private final FileChannel channel;
+    private final RecordFormat format;
+    private final NameOverflow overflow;
+
+    public FileRecordStore(String path) throws IOException {
+        this.channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        this.format = RecordFormat.open(channel);
+        this.overflow = new NameOverflow(path + ".ovf");
+    }
+
+    @Override
+    public RecordFormat format() {
+        return format;
+    }
+
+    @Override
+    public Student read(long offset) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(format.recordSize());
+        while (record.hasRemaining()) {
+            if (channel.read(record, offset + record.position()) < 0) {
+                throw new EOFException("Offset " + offset + " past end of store");
+            }
+        }
+        return format.decode(record, 0, overflow);
+    }
+
+    @Override
+    public void readSlots(long offset, ByteBuffer dst) throws IOException {
+        int start = dst.position();
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, offset + dst.position() - start) < 0) {
+                throw new EOFException("Offset " + offset + " past end of store");
+            }
+        }
+    }
+
+    @Override
+    public Student decode(ByteBuffer buf, int pos) throws IOException {
+        return format.decode(buf, pos, overflow);
+    }
+
+    @Override
+    public void write(long offset, Student student) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(format.recordSize());
+        format.encode(student, record, 0, overflow);
+        writeFully(record, offset);
+    }
+
+    @Override
+    public void writeBatch(long offset, List<Student> students) throws IOException {
+        ByteBuffer batch = ByteBuffer.allocate(students.size() * format.recordSize());
+        for (int i = 0; i < students.size(); i++) {
+            format.encode(students.get(i), batch, i * format.recordSize(), overflow);
+        }
+        writeFully(batch, offset);
+    }
+
+    @Override
+    public void markDeleted(long offset) throws IOException {
+        writeFully(ByteBuffer.wrap(new byte[]{Student.STATUS_DELETED}), offset);
+    }
+
+    private void writeFully(ByteBuffer buf, long offset) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf, offset + buf.position());
+        }
+    }
+
+    /** Ignores a partial record left at the tail by a torn write; the next append overwrites it. */
+    @Override
+    public long length() throws IOException {
+        long size = channel.size();
+        return size - size % format.recordSize();
+    }
+
+    @Override
+    public void clear() throws IOException {
+        channel.truncate(format.dataStart());
+        overflow.clear();
+    }
+
+    @Override
+    public void truncate(long length) throws IOException {
+        channel.truncate(length);
+    }
+
+    @Override
+    public void force() throws IOException {
+        channel.force(false);
+        overflow.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        overflow.close();
+    }
+}
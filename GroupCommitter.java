@@ -0,0 +1,102 @@
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes writes durable for a {@link Durability} mode. A writer registers a
+ * ticket while it still holds the database write lock and waits on it after
+ * releasing the lock. The first waiter becomes the leader: it lets the commit
+ * window fill up, then forces the files once for every ticket issued so far,
+ * while later writers keep writing and queue for the next force.
+ */
+class GroupCommitter {
+    interface Syncer {
+        void force() throws IOException;
+    }
+
+    private final Durability mode;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final Syncer syncer;
+    private long issued;
+    private long durable;
+    private boolean syncing;
+    private long failedThrough;
+    private IOException failure;
+
+    GroupCommitter(Durability mode, long window, TimeUnit unit, int maxBatch, Syncer syncer) {
+        this.mode = mode;
+        this.windowNanos = mode == Durability.GROUP_COMMIT ? unit.toNanos(window) : 0;
+        this.maxBatch = mode == Durability.GROUP_COMMIT ? maxBatch : 1;
+        this.syncer = syncer;
+    }
+
+    /** Issues a ticket for the writes made so far; call under the write lock. Returns 0 in async mode. */
+    synchronized long register() {
+        if (mode == Durability.ASYNC) return 0;
+        issued++;
+        if (issued - durable >= maxBatch) notifyAll();
+        return issued;
+    }
+
+    /**
+     * Blocks until the writes covered by {@code ticket} are on disk. Interrupts are
+     * held back until it returns: an interrupted thread forcing a {@code FileChannel}
+     * would close it for everyone.
+     */
+    void await(long ticket) throws IOException {
+        if (ticket == 0) return;
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (true) {
+                long target;
+                synchronized (this) {
+                    while (durable < ticket && syncing) {
+                        interrupted |= pause(0);
+                    }
+                    if (durable >= ticket) return;
+                    if (failedThrough >= ticket) throw failure;
+                    syncing = true;
+                    long deadline = System.nanoTime() + windowNanos;
+                    for (long left = windowNanos; left > 0 && issued - durable < maxBatch; left = deadline - System.nanoTime()) {
+                        interrupted |= pause(left);
+                    }
+                    target = issued;
+                }
+
+                IOException error = null;
+                try {
+                    syncer.force();
+                } catch (IOException e) {
+                    error = e;
+                }
+                synchronized (this) {
+                    syncing = false;
+                    if (error == null) {
+                        durable = Math.max(durable, target);
+                    } else {
+                        failedThrough = target;
+                        failure = error;
+                    }
+                    notifyAll();
+                }
+                if (error != null) throw error;
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Waits on this monitor, returning true if the wait was interrupted. */
+    private boolean pause(long nanos) {
+        try {
+            if (nanos > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, nanos);
+            } else {
+                wait();
+            }
+            return false;
+        } catch (InterruptedException e) {
+            return true;
+        }
+    }
+}
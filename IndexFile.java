@@ -0,0 +1,100 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Layout shared by the index snapshots and {@link ColumnarSnapshot} exports: a header
+ * {@code [magic:4][version:4][entries:8][bodyLength:8][crc32:4][reserved:4]}
+ * followed by the body. A snapshot is read with one bulk channel read and checked
+ * against the header, so a truncated or damaged file is rejected as a whole
+ * instead of being half-loaded. Snapshots are forced to disk before they replace
+ * the previous one, which lets them stand in for the journal they supersede.
+ */
+final class IndexFile {
+    static final int MAGIC = 0x53444249; // "SDBI"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
+    interface BodyWriter {
+        void write(DataOutput out) throws IOException;
+    }
+
+    /** A snapshot's entry count and body, positioned at the start of the body. */
+    static final class Contents {
+        final long entries;
+        final ByteBuffer body;
+
+        Contents(long entries, ByteBuffer body) {
+            this.entries = entries;
+            this.body = body;
+        }
+    }
+
+    private IndexFile() {
+    }
+
+    /** Writes a snapshot to a temporary file and moves it over {@code target}, reporting to {@code io} if not null. */
+    static void write(Path target, long entries, BodyWriter writer, DatabaseMetrics.FileMetrics io) throws IOException {
+        long started = io == null ? 0 : System.nanoTime();
+        Path tmp = Paths.get(target + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.position(HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), crc), 1 << 16));
+            writer.write(out);
+            out.flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(entries).putLong(out.size()).putInt((int) crc.getValue());
+            header.clear();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            if (io != null) io.written(HEADER_SIZE + out.size());
+            channel.force(false);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (io != null) io.snapshotWritten(started);
+    }
+
+    /**
+     * Reads a snapshot, or returns null if the file does not start with the header
+     * (a snapshot written before the header existed).
+     *
+     * @throws IOException if the file is truncated, of an unknown version or fails its checksum
+     */
+    static Contents read(Path file, DatabaseMetrics.FileMetrics io) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (io != null) io.read(channel.size());
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.position() < 4 || header.getInt(0) != MAGIC) return null;
+            if (header.hasRemaining()) throw new EOFException("Truncated index header in " + file);
+            int version = header.getInt(4);
+            if (version != VERSION) throw new IOException("Unsupported index version " + version + " in " + file);
+            long entries = header.getLong(8);
+            long length = header.getLong(16);
+            if (length < 0 || length > Integer.MAX_VALUE || channel.size() != HEADER_SIZE + length) {
+                throw new EOFException("Index body of " + file + " does not match its header");
+            }
+            ByteBuffer body = ByteBuffer.allocate((int) length);
+            readFully(channel, body, HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(body.array(), 0, body.limit());
+            if ((int) crc.getValue() != header.getInt(24)) throw new IOException("Checksum mismatch in " + file);
+            body.flip();
+            return new Contents(entries, body);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) break;
+        }
+    }
+}
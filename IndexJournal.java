@@ -0,0 +1,165 @@
+import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of index mutations, also used as the transaction redo log
+ * ({@link RedoLog}). Each record is
+ * {@code [op:1][length:2][payload][crc32:4]}, or has a 4-byte length in a
+ * journal of large records; a torn record at the tail (e.g. after a crash
+ * mid-write) is detected on replay and cut off.
+ */
+public class IndexJournal implements Closeable {
+    public interface PayloadWriter {
+        void write(DataOutput out) throws IOException;
+    }
+
+    public interface Handler {
+        void apply(byte op, DataInput in) throws IOException;
+    }
+
+    private final File file;
+    private final ByteArrayOutputStream scratch = new ByteArrayOutputStream(32);
+    private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+    private final CRC32 crc = new CRC32();
+    private final DatabaseMetrics.FileMetrics io;
+    private final boolean largeRecords;
+    private volatile FileOutputStream stream;
+    private DataOutputStream out;
+    private int records;
+
+    public IndexJournal(String path) {
+        this(path, null);
+    }
+
+    /** @param io byte counters to report to, or null */
+    public IndexJournal(String path, DatabaseMetrics.FileMetrics io) {
+        this(path, io, false);
+    }
+
+    /** @param largeRecords whether payloads may exceed 65535 bytes, which needs an int length in every record */
+    IndexJournal(String path, DatabaseMetrics.FileMetrics io, boolean largeRecords) {
+        this.file = new File(path);
+        this.io = io;
+        this.largeRecords = largeRecords;
+    }
+
+    private int headerSize() {
+        return largeRecords ? 1 + 4 : 1 + 2;
+    }
+
+    public int size() {
+        return records;
+    }
+
+    public int replay(Handler handler) throws IOException {
+        records = 0;
+        if (!file.exists()) return 0;
+        long valid = 0;
+        long fileLength = file.length();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int op = in.read();
+                if (op < 0) break;
+                int length = largeRecords ? in.readInt() : in.readUnsignedShort();
+                if (length < 0 || length > fileLength - valid) break;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                int stored = in.readInt();
+                crc.reset();
+                crc.update(op);
+                crc.update(payload);
+                if ((int) crc.getValue() != stored) break;
+                handler.apply((byte) op, new DataInputStream(new ByteArrayInputStream(payload)));
+                valid += headerSize() + length + 4;
+                records++;
+            }
+        } catch (EOFException e) {
+            // torn tail record, everything before it is intact
+        }
+        if (io != null) io.read(valid);
+        if (valid < fileLength) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(valid);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Appends a record without flushing it, returning its size in bytes. A payload
+     * too large for the length field is rejected before anything is written.
+     */
+    public int append(byte op, PayloadWriter writer) throws IOException {
+        scratch.reset();
+        writer.write(scratchOut);
+        byte[] payload = scratch.toByteArray();
+        if (!largeRecords && payload.length > 0xFFFF) {
+            throw new IOException("Journal record of " + payload.length + " bytes exceeds 65535");
+        }
+        crc.reset();
+        crc.update(op);
+        crc.update(payload);
+        if (out == null) {
+            stream = new FileOutputStream(file, true);
+            out = new DataOutputStream(new BufferedOutputStream(stream));
+        }
+        out.writeByte(op);
+        if (largeRecords) {
+            out.writeInt(payload.length);
+        } else {
+            out.writeShort(payload.length);
+        }
+        out.write(payload);
+        out.writeInt((int) crc.getValue());
+        records++;
+        int size = headerSize() + payload.length + 4;
+        if (io != null) io.written(size);
+        return size;
+    }
+
+    public void flush() throws IOException {
+        if (out != null) out.flush();
+    }
+
+    /**
+     * Forces the flushed records to disk. May run concurrently with appends; a
+     * journal closed or reset meanwhile is skipped, since its records went into a
+     * snapshot that was forced before it replaced the old one.
+     */
+    public void force() throws IOException {
+        FileOutputStream current = stream;
+        if (current == null) return;
+        try {
+            current.getChannel().force(false);
+        } catch (ClosedChannelException e) {
+            // reset or closed concurrently
+        }
+    }
+
+    /** Empties the journal but keeps it open, which is cheaper than {@link #reset} for a log emptied often. */
+    public void truncate() throws IOException {
+        if (out == null) {
+            reset();
+            return;
+        }
+        out.flush();
+        stream.getChannel().truncate(0);
+        records = 0;
+    }
+
+    public void reset() throws IOException {
+        close();
+        file.delete();
+        records = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+            stream = null;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from int keys to long values stored in parallel
+ * primitive arrays, so lookups neither box nor allocate. Uses linear probing;
+ * removed slots become tombstones that are reclaimed on the next rehash.
+ */
+public class IntLongHashMap {
+    public interface EntryConsumer {
+        void accept(int key, long value);
+    }
+
+    private static final byte FREE = 0;
+    private static final byte USED = 1;
+    private static final byte REMOVED = 2;
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private int[] keys;
+    private long[] values;
+    private byte[] states;
+    private int size;
+    private int tombstones;
+    private int resizeThreshold;
+
+    public IntLongHashMap() {
+        this(16);
+    }
+
+    public IntLongHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long needed = (long) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR);
+        int capacity = Integer.highestOneBit((int) Math.min(needed, 1 << 30));
+        return capacity < needed ? capacity << 1 : capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+        states = new byte[capacity];
+        tombstones = 0;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** Slot holding {@code key}, or -1. */
+    private int find(int key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            if (states[i] == FREE) return -1;
+            if (states[i] == USED && keys[i] == key) return i;
+        }
+    }
+
+    public long get(int key, long defaultValue) {
+        int slot = find(key);
+        return slot < 0 ? defaultValue : values[slot];
+    }
+
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    public void put(int key, long value) {
+        int mask = keys.length - 1;
+        int firstRemoved = -1;
+        int i = hash(key) & mask;
+        for (; states[i] != FREE; i = (i + 1) & mask) {
+            if (states[i] == USED && keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            if (states[i] == REMOVED && firstRemoved < 0) firstRemoved = i;
+        }
+        if (firstRemoved >= 0) {
+            i = firstRemoved;
+            tombstones--;
+        }
+        keys[i] = key;
+        values[i] = value;
+        states[i] = USED;
+        size++;
+        if (size + tombstones > resizeThreshold) {
+            rehash(capacityFor(size * 2));
+        }
+    }
+
+    public boolean remove(int key) {
+        int slot = find(key);
+        if (slot < 0) return false;
+        states[slot] = REMOVED;
+        size--;
+        tombstones++;
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        byte[] oldStates = states;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldStates.length; i++) {
+            if (oldStates[i] == USED) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(states, FREE);
+        size = 0;
+        tombstones = 0;
+    }
+
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == USED) consumer.accept(keys[i], values[i]);
+        }
+    }
+
+    public long[] values() {
+        long[] result = new long[size];
+        int n = 0;
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == USED) result[n++] = values[i];
+        }
+        return result;
+    }
+}
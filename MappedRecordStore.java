@@ -0,0 +1,147 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Record store that maps the data file into memory in fixed segments and
+ * encodes/decodes slots straight from the mapping. Segments are a whole number
+ * of records, so a slot never straddles two mappings, and a new segment is
+ * mapped (growing the file) when a write goes past the mapped range.
+ * The file is trimmed back to the used slots on close.
+ */
+public class MappedRecordStore implements RecordStore {
+    static final int SEGMENT_RECORDS = 65536;
+
+    private final FileChannel channel;
+    private final RecordFormat format;
+    private final NameOverflow overflow;
+    private final int recordSize;
+    private final long segmentSize;
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private long length;
+
+    public MappedRecordStore(String path) throws IOException {
+        this.channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        this.format = RecordFormat.open(channel);
+        this.overflow = new NameOverflow(path + ".ovf");
+        this.recordSize = format.recordSize();
+        this.segmentSize = (long) recordSize * SEGMENT_RECORDS;
+        long size = channel.size();
+        ensureMapped(size);
+        length = size - size % recordSize;
+        // a crash can leave the zero-filled tail of the last segment behind
+        while (length > format.dataStart() && segment(length - recordSize).get(position(length - recordSize)) == 0) {
+            length -= recordSize;
+        }
+    }
+
+    private void ensureMapped(long size) throws IOException {
+        while ((long) segments.size() * segmentSize < size) {
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, segments.size() * segmentSize, segmentSize));
+        }
+    }
+
+    private ByteBuffer segment(long offset) {
+        return segments.get((int) (offset / segmentSize));
+    }
+
+    private int position(long offset) {
+        return (int) (offset % segmentSize);
+    }
+
+    @Override
+    public RecordFormat format() {
+        return format;
+    }
+
+    @Override
+    public Student read(long offset) throws IOException {
+        if (offset + recordSize > length) throw new EOFException("Offset " + offset + " past end of store");
+        return format.decode(segment(offset), position(offset), overflow);
+    }
+
+    @Override
+    public void readSlots(long offset, ByteBuffer dst) throws IOException {
+        if (offset + dst.remaining() > length) throw new EOFException("Offset " + offset + " past end of store");
+        while (dst.hasRemaining()) {
+            ByteBuffer source = segment(offset).duplicate();
+            source.position(position(offset));
+            source.limit((int) Math.min(segmentSize, source.position() + (long) dst.remaining()));
+            offset += source.remaining();
+            dst.put(source);
+        }
+    }
+
+    @Override
+    public Student decode(ByteBuffer buf, int pos) throws IOException {
+        return format.decode(buf, pos, overflow);
+    }
+
+    @Override
+    public void write(long offset, Student student) throws IOException {
+        ensureMapped(offset + recordSize);
+        format.encode(student, segment(offset), position(offset), overflow);
+        length = Math.max(length, offset + recordSize);
+    }
+
+    @Override
+    public void writeBatch(long offset, List<Student> students) throws IOException {
+        for (Student student : students) {
+            write(offset, student);
+            offset += recordSize;
+        }
+    }
+
+    @Override
+    public void markDeleted(long offset) throws IOException {
+        if (offset + recordSize > length) throw new EOFException("Offset " + offset + " past end of store");
+        segment(offset).put(position(offset), Student.STATUS_DELETED);
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void clear() throws IOException {
+        segments.clear();
+        channel.truncate(format.dataStart());
+        overflow.clear();
+        length = format.dataStart();
+    }
+
+    /** Empties the dropped slots in place; the file itself is cut back on close, and on reopen after a crash. */
+    @Override
+    public void truncate(long newLength) {
+        for (long offset = newLength; offset < length; offset += recordSize) {
+            segment(offset).put(position(offset), (byte) 0);
+        }
+        length = Math.min(length, newLength);
+    }
+
+    @Override
+    public void force() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        overflow.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        segments.clear();
+        channel.truncate(length);
+        channel.close();
+        overflow.close();
+    }
+}
@@ -0,0 +1,107 @@
+import java.beans.ConstructorProperties;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Point-in-time copy of a database's {@link DatabaseMetrics}: per-operation
+ * counts and latency percentiles, and bytes read and written per file.
+ */
+public final class MetricsSnapshot {
+    public static final class OperationStats {
+        private final long count;
+        private final double meanMicros;
+        private final double p50Micros;
+        private final double p90Micros;
+        private final double p99Micros;
+        private final double p999Micros;
+        private final double maxMicros;
+
+        @ConstructorProperties({"count", "meanMicros", "p50Micros", "p90Micros", "p99Micros", "p999Micros", "maxMicros"})
+        public OperationStats(long count, double meanMicros, double p50Micros, double p90Micros,
+                              double p99Micros, double p999Micros, double maxMicros) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p90Micros = p90Micros;
+            this.p99Micros = p99Micros;
+            this.p999Micros = p999Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public long getCount() { return count; }
+        public double getMeanMicros() { return meanMicros; }
+        public double getP50Micros() { return p50Micros; }
+        public double getP90Micros() { return p90Micros; }
+        public double getP99Micros() { return p99Micros; }
+        public double getP999Micros() { return p999Micros; }
+        public double getMaxMicros() { return maxMicros; }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d, mean=%.1fus, p50=%.1fus, p90=%.1fus, p99=%.1fus, p99.9=%.1fus, max=%.1fus",
+                    count, meanMicros, p50Micros, p90Micros, p99Micros, p999Micros, maxMicros);
+        }
+    }
+
+    public static final class FileStats {
+        private final long bytesRead;
+        private final long bytesWritten;
+
+        @ConstructorProperties({"bytesRead", "bytesWritten"})
+        public FileStats(long bytesRead, long bytesWritten) {
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+        }
+
+        public long getBytesRead() { return bytesRead; }
+        public long getBytesWritten() { return bytesWritten; }
+
+        @Override
+        public String toString() {
+            return String.format("read=%d, written=%d", bytesRead, bytesWritten);
+        }
+    }
+
+    private static final OperationStats NO_OPERATIONS = new OperationStats(0, 0, 0, 0, 0, 0, 0);
+    private static final FileStats NO_IO = new FileStats(0, 0);
+
+    private final Map<DatabaseMetrics.Operation, OperationStats> operations;
+    private final Map<DatabaseMetrics.FileKind, FileStats> files;
+
+    MetricsSnapshot(Map<DatabaseMetrics.Operation, OperationStats> operations,
+                    Map<DatabaseMetrics.FileKind, FileStats> files) {
+        this.operations = Collections.unmodifiableMap(new EnumMap<>(operations));
+        this.files = Collections.unmodifiableMap(new EnumMap<>(files));
+    }
+
+    static MetricsSnapshot empty() {
+        return new MetricsSnapshot(new EnumMap<>(DatabaseMetrics.Operation.class), new EnumMap<>(DatabaseMetrics.FileKind.class));
+    }
+
+    public OperationStats operation(DatabaseMetrics.Operation operation) {
+        return operations.getOrDefault(operation, NO_OPERATIONS);
+    }
+
+    public FileStats file(DatabaseMetrics.FileKind file) {
+        return files.getOrDefault(file, NO_IO);
+    }
+
+    public Map<DatabaseMetrics.Operation, OperationStats> getOperations() {
+        return operations;
+    }
+
+    public Map<DatabaseMetrics.FileKind, FileStats> getFiles() {
+        return files;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        operations.forEach((op, stats) -> {
+            if (stats.getCount() > 0) sb.append(op).append(": ").append(stats).append('\n');
+        });
+        files.forEach((file, stats) -> sb.append(file).append(": ").append(stats).append('\n'));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,323 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Sorted dictionary over student names. Names are keyed by their lower-cased
+ * form, and each entry keeps the exact name next to the record offset, so exact,
+ * case-insensitive and prefix lookups are answered from the index alone without
+ * reading non-matching records.
+ */
+public class NameIndex {
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int MIN_COMPACT_RECORDS = 4096;
+
+    private static final class Entry {
+        final String name;
+        final long offset;
+
+        Entry(String name, long offset) {
+            this.name = name;
+            this.offset = offset;
+        }
+    }
+
+    private String indexPath;
+    private TreeMap<String, List<Entry>> index;
+    private IndexJournal journal;
+    private final DatabaseMetrics.FileMetrics io;
+    private int entryCount;
+    private boolean corrupt;
+
+    public NameIndex(String indexPath) {
+        this(indexPath, null);
+    }
+
+    /** @param io byte counters for the snapshot and journal, or null */
+    public NameIndex(String indexPath, DatabaseMetrics.FileMetrics io) {
+        this.indexPath = indexPath;
+        this.io = io;
+        this.index = new TreeMap<>();
+        this.journal = new IndexJournal(indexPath + ".log", io);
+        boolean headerless = loadIndex();
+        replayJournal();
+        if (headerless && !corrupt) saveIndex();
+    }
+
+    static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Loads the snapshot, returning true if it was in the headerless layout and needs
+     * rewriting. Entries are stored as {@code [length:2][UTF-8 name][offset:8]}.
+     */
+    private boolean loadIndex() {
+        index.clear();
+        entryCount = 0;
+        Path file = Paths.get(indexPath);
+        if (!Files.exists(file)) return false;
+        try {
+            IndexFile.Contents contents = IndexFile.read(file, io);
+            if (contents == null) {
+                loadHeaderless(file);
+                return true;
+            }
+            ByteBuffer body = contents.body;
+            byte[] bytes = body.array();
+            while (body.hasRemaining()) {
+                int length = body.getShort() & 0xFFFF;
+                String name = new String(bytes, body.position(), length, StandardCharsets.UTF_8);
+                body.position(body.position() + length);
+                put(name, body.getLong());
+            }
+            if (entryCount != contents.entries) throw new IOException("Bad entry count in " + file);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            index.clear();
+            entryCount = 0;
+            corrupt = true;
+        }
+        return false;
+    }
+
+    private void loadHeaderless(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (in.available() > 0) {
+                String name = in.readUTF();
+                put(name, in.readLong());
+            }
+        }
+    }
+
+    /** True if the snapshot on disk was damaged and could not be loaded; the index must be rebuilt. */
+    public boolean isCorrupt() {
+        return corrupt;
+    }
+
+    private void replayJournal() {
+        try {
+            journal.replay((op, in) -> {
+                String name = RecordFormat.readName(in);
+                long offset = in.readLong();
+                if (op == OP_ADD) {
+                    put(name, offset);
+                } else if (op == OP_REMOVE) {
+                    remove(name, offset);
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void saveIndex() {
+        try {
+            IndexFile.write(Paths.get(indexPath), entryCount, out -> {
+                for (List<Entry> entries : index.values()) {
+                    for (Entry entry : entries) {
+                        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+                        out.writeShort(name.length);
+                        out.write(name);
+                        out.writeLong(entry.offset);
+                    }
+                }
+            }, io);
+            journal.reset();
+            corrupt = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public List<Long> getOffsets(String name) {
+        List<Long> result = new ArrayList<>();
+        List<Entry> entries = index.get(normalize(name));
+        if (entries == null) return result;
+        String exact = name.trim();
+        for (Entry entry : entries) {
+            if (entry.name.equals(exact)) result.add(entry.offset);
+        }
+        return result;
+    }
+
+    public List<Long> getOffsetsIgnoreCase(String name) {
+        List<Long> result = new ArrayList<>();
+        List<Entry> entries = index.get(normalize(name));
+        if (entries == null) return result;
+        for (Entry entry : entries) {
+            result.add(entry.offset);
+        }
+        return result;
+    }
+
+    /** Case-insensitive prefix match, in name order, stopping after {@code limit} offsets. */
+    public List<Long> getOffsetsByPrefix(String prefix, int limit) {
+        List<Long> result = new ArrayList<>();
+        String from = normalize(prefix);
+        for (List<Entry> entries : index.subMap(from, true, from + Character.MAX_VALUE, false).values()) {
+            for (Entry entry : entries) {
+                if (result.size() >= limit) return result;
+                result.add(entry.offset);
+            }
+        }
+        return result;
+    }
+
+    /** Number of case-insensitive matches; an upper bound for exact matches. */
+    public int countIgnoreCase(String name) {
+        List<Entry> entries = index.get(normalize(name));
+        return entries == null ? 0 : entries.size();
+    }
+
+    /** Number of case-insensitive prefix matches, counting no further than {@code cap}. */
+    public long countByPrefix(String prefix, long cap) {
+        long count = 0;
+        String from = normalize(prefix);
+        for (List<Entry> entries : index.subMap(from, true, from + Character.MAX_VALUE, false).values()) {
+            count += entries.size();
+            if (count >= cap) break;
+        }
+        return count;
+    }
+
+    public int size() {
+        return entryCount;
+    }
+
+    public void addEntry(String name, long offset) {
+        put(name, offset);
+        log(OP_ADD, name, offset);
+        persist();
+    }
+
+    /** Adds many entries without journaling them, then writes one snapshot. */
+    public void addEntries(String[] names, long[] offsets, int count) {
+        for (int i = 0; i < count; i++) {
+            put(names[i], offsets[i]);
+        }
+        saveIndex();
+    }
+
+    /** See {@link StudentIndex#putEntries}. Unlike the other indexes this one keeps duplicates. */
+    public void putEntries(String[] names, long[] offsets, int count) {
+        if (count > Math.max(MIN_COMPACT_RECORDS, entryCount)) {
+            addEntries(names, offsets, count);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            put(names[i], offsets[i]);
+            log(OP_ADD, names[i], offsets[i]);
+        }
+        persist();
+    }
+
+    public void removeEntry(String name, long offset) {
+        if (remove(name, offset)) {
+            log(OP_REMOVE, name, offset);
+            persist();
+        }
+    }
+
+    /** Removes many entries, journaling them with a single flush. */
+    public void removeEntries(String[] names, long[] offsets, int count) {
+        for (int i = 0; i < count; i++) {
+            if (remove(names[i], offsets[i])) log(OP_REMOVE, names[i], offsets[i]);
+        }
+        persist();
+    }
+
+    private void put(String name, long offset) {
+        index.computeIfAbsent(normalize(name), k -> new ArrayList<>(1)).add(new Entry(name, offset));
+        entryCount++;
+    }
+
+    private boolean remove(String name, long offset) {
+        String key = normalize(name);
+        List<Entry> entries = index.get(key);
+        if (entries == null) return false;
+        for (Iterator<Entry> it = entries.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.offset == offset && entry.name.equals(name)) {
+                it.remove();
+                if (entries.isEmpty()) index.remove(key);
+                entryCount--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void log(byte op, String name, long offset) {
+        try {
+            journal.append(op, out -> {
+                RecordFormat.writeName(out, name);
+                out.writeLong(offset);
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void persist() {
+        try {
+            journal.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (journal.size() > Math.max(MIN_COMPACT_RECORDS, entryCount)) {
+            saveIndex();
+        }
+    }
+
+    /** See {@link StudentIndex#remap}. */
+    public void remap(long[] oldOffsets, long[] newOffsets) {
+        entryCount = 0;
+        Iterator<List<Entry>> it = index.values().iterator();
+        while (it.hasNext()) {
+            List<Entry> entries = it.next();
+            List<Entry> remapped = new ArrayList<>(entries.size());
+            for (Entry entry : entries) {
+                int pos = Arrays.binarySearch(oldOffsets, entry.offset);
+                if (pos >= 0) remapped.add(new Entry(entry.name, newOffsets[pos]));
+            }
+            if (remapped.isEmpty()) {
+                it.remove();
+            } else {
+                entries.clear();
+                entries.addAll(remapped);
+                entryCount += remapped.size();
+            }
+        }
+        saveIndex();
+    }
+
+    /** Forces journaled changes to disk; safe to call without holding the database lock. */
+    public void force() throws IOException {
+        journal.force();
+    }
+
+    public void clear() {
+        index.clear();
+        entryCount = 0;
+        corrupt = false;
+        new File(indexPath).delete();
+        try {
+            journal.reset();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void close() {
+        if (journal.size() > 0 || !new File(indexPath).exists()) saveIndex();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Append-only side file for names too long to fit inline in a record slot.
+ * Records point at their name by offset; space left behind by updates and
+ * deletes is reclaimed when the data file is compacted. The file is only
+ * created once the first long name is written.
+ */
+public class NameOverflow implements Closeable {
+    private final Path path;
+    private FileChannel channel;
+    private long end;
+
+    public NameOverflow(String path) throws IOException {
+        this.path = Paths.get(path);
+        if (Files.exists(this.path)) open();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        end = channel.size();
+    }
+
+    public long append(byte[] bytes) throws IOException {
+        if (channel == null) open();
+        long position = end;
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) {
+            channel.write(buf, position + buf.position());
+        }
+        end += bytes.length;
+        return position;
+    }
+
+    public byte[] read(long position, int length) throws IOException {
+        if (channel == null) throw new EOFException("No overflow file at " + path);
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException("Name at " + position + " past end of " + path);
+            }
+        }
+        return buf.array();
+    }
+
+    public void clear() throws IOException {
+        if (channel != null) channel.truncate(0);
+        end = 0;
+    }
+
+    public void force() throws IOException {
+        if (channel != null) channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) channel.close();
+    }
+}
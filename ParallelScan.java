@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.DoubleSummaryStatistics;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Fork/join scan that aggregates GPA over a range of record slots. The range is
+ * halved until it is at most {@link #CHUNK_SLOTS} slots; each chunk is read with
+ * one {@link RecordStore#readSlots} call and its fields are taken from the raw
+ * bytes through the {@link RecordFormat} accessors, so no {@link Student} objects
+ * are built. Results are keyed by enrollment year, or by 0 when not grouping.
+ */
+class ParallelScan extends RecursiveTask<Map<Integer, DoubleSummaryStatistics>> {
+    private static final long serialVersionUID = 1L;
+    static final int CHUNK_SLOTS = 16384;
+
+    private final RecordStore store;
+    private final RecordFilter filter;
+    private final boolean groupByYear;
+    private final long fromSlot;
+    private final long toSlot;
+
+    ParallelScan(RecordStore store, RecordFilter filter, boolean groupByYear, long fromSlot, long toSlot) {
+        this.store = store;
+        this.filter = filter;
+        this.groupByYear = groupByYear;
+        this.fromSlot = fromSlot;
+        this.toSlot = toSlot;
+    }
+
+    @Override
+    protected Map<Integer, DoubleSummaryStatistics> compute() {
+        if (toSlot - fromSlot <= CHUNK_SLOTS) {
+            try {
+                return scanChunk();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        long middle = (fromSlot + toSlot) >>> 1;
+        ParallelScan left = new ParallelScan(store, filter, groupByYear, fromSlot, middle);
+        left.fork();
+        Map<Integer, DoubleSummaryStatistics> result = new ParallelScan(store, filter, groupByYear, middle, toSlot).compute();
+        for (Map.Entry<Integer, DoubleSummaryStatistics> entry : left.join().entrySet()) {
+            result.merge(entry.getKey(), entry.getValue(), (a, b) -> {
+                a.combine(b);
+                return a;
+            });
+        }
+        return result;
+    }
+
+    private Map<Integer, DoubleSummaryStatistics> scanChunk() throws IOException {
+        RecordFormat format = store.format();
+        int recordSize = format.recordSize();
+        int slots = (int) (toSlot - fromSlot);
+        ByteBuffer buf = ByteBuffer.allocate(slots * recordSize);
+        store.readSlots(format.dataStart() + fromSlot * recordSize, buf);
+
+        Map<Integer, DoubleSummaryStatistics> groups = new HashMap<>();
+        for (int pos = 0; pos < buf.capacity(); pos += recordSize) {
+            if (format.status(buf, pos) != Student.STATUS_LIVE) continue;
+            double gpa = format.gpa(buf, pos);
+            int year = format.enrollmentYear(buf, pos);
+            if (filter != null && !filter.test(format.studentId(buf, pos), gpa, year)) continue;
+            groups.computeIfAbsent(groupByYear ? year : 0, k -> new DoubleSummaryStatistics()).accept(gpa);
+        }
+        return groups;
+    }
+}
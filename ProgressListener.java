@@ -0,0 +1,13 @@
+/**
+ * Callback for long-running database operations. Cancellation is cooperative:
+ * the operation polls {@link #isCancelled()} between chunks of work rather than
+ * relying on thread interruption, which would close shared file channels.
+ */
+public interface ProgressListener {
+    /** Called with the completed fraction of the work, in [0, 1]. */
+    void progress(double fraction);
+
+    default boolean isCancelled() {
+        return false;
+    }
+}
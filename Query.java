@@ -0,0 +1,70 @@
+import java.util.Comparator;
+
+/**
+ * A query for {@link StudentDatabase#query}: an optional {@link Condition}, an
+ * optional sort order and an optional limit.
+ *
+ * <pre>
+ * List&lt;Student&gt; best = db.query(Query.where(Condition.yearEquals(2024).and(Condition.gpaAtLeast(3.5)))
+ *         .orderBy(Query.Field.GPA, true)
+ *         .limit(10));
+ * </pre>
+ */
+public class Query {
+    public enum Field {
+        ID(Comparator.comparingInt(Student::getStudentId)),
+        NAME(Comparator.comparing(Student::getName)),
+        GPA(Comparator.comparingDouble(Student::getGpa)),
+        ENROLLMENT_YEAR(Comparator.comparingInt(Student::getEnrollmentYear));
+
+        private final Comparator<Student> comparator;
+
+        Field(Comparator<Student> comparator) {
+            this.comparator = comparator;
+        }
+    }
+
+    private final Condition condition;
+    private Comparator<Student> order;
+    private int limit;
+
+    private Query(Condition condition) {
+        this.condition = condition;
+    }
+
+    /** Matches every student. */
+    public static Query all() {
+        return new Query(null);
+    }
+
+    public static Query where(Condition condition) {
+        if (condition == null) throw new IllegalArgumentException("condition is null");
+        return new Query(condition);
+    }
+
+    /** Sorts by {@code field}; called again, adds a tie-breaker. Ties left after the last field are in file order. */
+    public Query orderBy(Field field, boolean descending) {
+        Comparator<Student> next = descending ? field.comparator.reversed() : field.comparator;
+        order = order == null ? next : order.thenComparing(next);
+        return this;
+    }
+
+    /** Returns at most {@code limit} students; 0 (the default) means no limit. */
+    public Query limit(int limit) {
+        if (limit < 0) throw new IllegalArgumentException("limit must be >= 0");
+        this.limit = limit;
+        return this;
+    }
+
+    Condition condition() {
+        return condition;
+    }
+
+    Comparator<Student> order() {
+        return order;
+    }
+
+    int limit() {
+        return limit;
+    }
+}
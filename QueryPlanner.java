@@ -0,0 +1,177 @@
+import java.util.*;
+
+/**
+ * Chooses how a {@link Condition} is answered. Each condition estimates its
+ * matches from index counts; if even the best estimate is a large share of the
+ * table, a sequential scan of the data file beats reading records one by one
+ * and the plan has no offsets. Otherwise the condition collects sorted offset
+ * arrays from its indexes, intersecting for AND and merging for OR, and only
+ * the surviving records are read, in file order. Parts with bitmap indexes are
+ * combined as bitmaps and turned into offsets only at the end.
+ */
+class QueryPlanner {
+    /** Above this share of the live records a full scan is cheaper than index reads. */
+    private static final double SCAN_FRACTION = 0.125;
+    /** An AND child is intersected only if it is at most this many times larger than the candidates so far. */
+    private static final int INTERSECT_RATIO = 32;
+
+    static final class Plan {
+        /** Sorted candidate offsets, or null to scan the whole file. */
+        final long[] offsets;
+        final String description;
+
+        Plan(long[] offsets, String description) {
+            this.offsets = offsets;
+            this.description = description;
+        }
+    }
+
+    final StudentIndex idIndex;
+    final NameIndex nameIndex;
+    final ValueIndex gpaIndex;
+    final ValueIndex yearIndex;
+    private final RecordFormat format;
+    private final Map<Condition, Long> estimates = new IdentityHashMap<>();
+    private final Map<Condition, Optional<SlotBitmap>> bitmaps = new IdentityHashMap<>();
+
+    QueryPlanner(StudentIndex idIndex, NameIndex nameIndex, ValueIndex gpaIndex, ValueIndex yearIndex, RecordFormat format) {
+        this.idIndex = idIndex;
+        this.nameIndex = nameIndex;
+        this.gpaIndex = gpaIndex;
+        this.yearIndex = yearIndex;
+        this.format = format;
+    }
+
+    Plan plan(Condition condition) {
+        if (condition == null) return new Plan(null, "scan all");
+        long estimate = estimate(condition);
+        if (estimate > liveCount() * SCAN_FRACTION) return new Plan(null, describe(condition, "scan, filter ", estimate));
+        return new Plan(offsets(condition), describe(condition, "index ", estimate));
+    }
+
+    private String describe(Condition condition, String method, long estimate) {
+        StringBuilder description = new StringBuilder(method);
+        if (bitmap(condition) != null) description.append("bitmap ");
+        condition.describe(this, description);
+        description.append(" ~").append(estimate).append(" of ").append(liveCount());
+        return description.toString();
+    }
+
+    long liveCount() {
+        return idIndex.size();
+    }
+
+    long estimate(Condition condition) {
+        Long cached = estimates.get(condition);
+        if (cached == null) {
+            cached = condition.estimate(this);
+            estimates.put(condition, cached);
+        }
+        return cached;
+    }
+
+    /** The condition's bitmap, computed once per plan. */
+    SlotBitmap bitmap(Condition condition) {
+        Optional<SlotBitmap> cached = bitmaps.get(condition);
+        if (cached == null) {
+            cached = Optional.ofNullable(condition.bitmap(this));
+            bitmaps.put(condition, cached);
+        }
+        return cached.orElse(null);
+    }
+
+    /** Offsets of a condition, from its bitmap if it has one. */
+    long[] offsets(Condition condition) {
+        SlotBitmap bitmap = bitmap(condition);
+        return bitmap != null ? toOffsets(bitmap) : condition.offsets(this);
+    }
+
+    long[] toOffsets(SlotBitmap bitmap) {
+        long[] offsets = new long[(int) bitmap.cardinality()];
+        int[] n = {0};
+        long base = format.dataStart();
+        int recordSize = format.recordSize();
+        bitmap.forEach(slot -> offsets[n[0]++] = base + (long) slot * recordSize);
+        return offsets;
+    }
+
+    /** Keeps the offsets whose slots are in {@code bitmap}. */
+    long[] filter(long[] offsets, SlotBitmap bitmap) {
+        long[] result = new long[offsets.length];
+        int n = 0;
+        for (long offset : offsets) {
+            if (bitmap.contains((int) ((offset - format.dataStart()) / format.recordSize()))) result[n++] = offset;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    List<Condition> bySelectivity(List<Condition> conditions) {
+        List<Condition> sorted = new ArrayList<>(conditions);
+        sorted.sort(Comparator.comparingLong(this::estimate));
+        return sorted;
+    }
+
+    boolean worthIntersecting(long candidates, long estimate) {
+        return estimate <= Math.max(candidates, 1) * INTERSECT_RATIO;
+    }
+
+    static long[] toSortedArray(List<Long> offsets) {
+        long[] result = new long[offsets.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = offsets.get(i);
+        }
+        Arrays.sort(result);
+        int n = 0;
+        for (int i = 0; i < result.length; i++) {
+            if (n == 0 || result[i] != result[n - 1]) result[n++] = result[i];
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /** Intersects sorted arrays, binary-searching the larger one when the sizes are far apart. */
+    static long[] intersect(long[] a, long[] b) {
+        if (a.length > b.length) return intersect(b, a);
+        long[] result = new long[a.length];
+        int n = 0;
+        if ((long) a.length * 16 < b.length) {
+            int from = 0;
+            for (long offset : a) {
+                int pos = Arrays.binarySearch(b, from, b.length, offset);
+                if (pos >= 0) {
+                    result[n++] = offset;
+                    from = pos + 1;
+                } else {
+                    from = -pos - 1;
+                }
+            }
+        } else {
+            for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    result[n++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    static long[] union(long[] a, long[] b) {
+        long[] result = new long[a.length + b.length];
+        int i = 0, j = 0, n = 0;
+        while (i < a.length || j < b.length) {
+            long next;
+            if (j == b.length || (i < a.length && a[i] <= b[j])) {
+                next = a[i++];
+            } else {
+                next = b[j++];
+            }
+            if (n == 0 || result[n - 1] != next) result[n++] = next;
+        }
+        return Arrays.copyOf(result, n);
+    }
+}
@@ -0,0 +1,11 @@
+/**
+ * Condition on the fixed-width fields of a record, evaluated by table scans
+ * straight from the record bytes without building a {@link Student}.
+ */
+public interface RecordFilter {
+    boolean test(int studentId, double gpa, int enrollmentYear);
+
+    default RecordFilter and(RecordFilter other) {
+        return (id, gpa, year) -> test(id, gpa, year) && other.test(id, gpa, year);
+    }
+}
@@ -0,0 +1,260 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * On-disk layout of a data file. Current files start with a header slot holding
+ * a magic number and format version; files without it are read with the legacy
+ * layout (status byte, 32 UTF-16 chars of name) so old databases still open.
+ * Files of the original layout, without a status byte, can only be read and are
+ * upgraded by {@link StudentDatabase} when opened; any other headerless file is
+ * refused rather than misread. {@link StudentDatabase#compact()} always rewrites
+ * into {@link #CURRENT}.
+ *
+ * <p>All accessors use absolute positions and leave the buffer position alone.
+ */
+public abstract class RecordFormat {
+    static final int MAGIC = 0x53444246; // "SDBF"
+
+    public static final RecordFormat ORIGINAL = new Original();
+    public static final RecordFormat LEGACY = new Legacy();
+    public static final RecordFormat UTF8 = new Utf8();
+    public static final RecordFormat CURRENT = UTF8;
+
+    public abstract int version();
+
+    public abstract int recordSize();
+
+    /** Offset of the first record slot. */
+    public abstract int dataStart();
+
+    public abstract void encode(Student student, ByteBuffer buf, int pos, NameOverflow overflow) throws IOException;
+
+    /** Decodes the slot at {@code pos}, or returns null for a deleted or empty slot. */
+    public abstract Student decode(ByteBuffer buf, int pos, NameOverflow overflow) throws IOException;
+
+    public byte status(ByteBuffer buf, int pos) {
+        return buf.get(pos);
+    }
+
+    public abstract int studentId(ByteBuffer buf, int pos);
+
+    public abstract double gpa(ByteBuffer buf, int pos);
+
+    public abstract int enrollmentYear(ByteBuffer buf, int pos);
+
+    void writeHeader(ByteBuffer buf) {
+        buf.putInt(0, MAGIC);
+        buf.putShort(4, (short) version());
+        buf.putShort(6, (short) recordSize());
+    }
+
+    /**
+     * Detects the format of an open data file, writing a {@link #CURRENT} header
+     * into an empty one.
+     *
+     * @throws IOException if the file has no header and is in neither the legacy nor the original layout
+     */
+    public static RecordFormat open(FileChannel channel) throws IOException {
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(CURRENT.recordSize());
+            CURRENT.writeHeader(header);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            return CURRENT;
+        }
+        ByteBuffer header = ByteBuffer.allocate(8);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+            // fill up to the header size or EOF
+        }
+        if (header.position() < 8 || header.getInt(0) != MAGIC) {
+            if (isLegacy(channel)) return LEGACY;
+            if (channel.size() % ORIGINAL.recordSize() == 0) return ORIGINAL;
+            throw new IOException("Unrecognized data file layout");
+        }
+        int version = header.getShort(4);
+        if (version == UTF8.version()) return UTF8;
+        throw new IOException("Unsupported data file version " + version);
+    }
+
+    /**
+     * Writes a name to a journal or snapshot as {@code [length:2][UTF-8]}. Unlike
+     * {@link DataOutput#writeUTF}, whose modified UTF-8 takes more bytes for NUL
+     * and supplementary characters, this fits every name a record can hold.
+     */
+    static void writeName(DataOutput out, String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) throw new IllegalArgumentException("Name longer than 65535 bytes");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readName(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A legacy file is a whole number of records and every slot starts with a
+     * status byte. The 80-byte records of the original layout, or any other
+     * headerless file, would be read at the wrong record boundaries.
+     */
+    private static boolean isLegacy(FileChannel channel) throws IOException {
+        int recordSize = LEGACY.recordSize();
+        long size = channel.size();
+        if (size % recordSize != 0) return false;
+        ByteBuffer chunk = ByteBuffer.allocate(recordSize * 4096);
+        for (long offset = 0; offset < size; offset += chunk.capacity()) {
+            chunk.clear();
+            while (chunk.hasRemaining() && channel.read(chunk, offset + chunk.position()) > 0) {
+                // fill the chunk or up to EOF
+            }
+            for (int pos = 0; pos < chunk.position(); pos += recordSize) {
+                byte status = chunk.get(pos);
+                // 0 is a slot of the mapped store's zero-filled tail
+                if (status != 0 && status != Student.STATUS_LIVE && status != Student.STATUS_DELETED) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Version 0, the layout before record formats existed:
+     * {@code [id:4][name:32 UTF-16 chars][gpa:8][year:4]}. There is no status byte
+     * and deleted records were left in place, so every slot decodes as a student
+     * and only the id index knows which are live. Read-only.
+     */
+    private static final class Original extends RecordFormat {
+        private static final int NAME_OFFSET = 4;
+        private static final int GPA_OFFSET = NAME_OFFSET + Student.NAME_LENGTH * 2;
+        private static final int YEAR_OFFSET = GPA_OFFSET + 8;
+        private static final int RECORD_SIZE = YEAR_OFFSET + 4;
+
+        @Override public int version() { return 0; }
+        @Override public int recordSize() { return RECORD_SIZE; }
+        @Override public int dataStart() { return 0; }
+
+        @Override
+        public void encode(Student student, ByteBuffer buf, int pos, NameOverflow overflow) {
+            throw new UnsupportedOperationException("The original record layout is read-only");
+        }
+
+        @Override
+        public Student decode(ByteBuffer buf, int pos, NameOverflow overflow) {
+            char[] nameChars = new char[Student.NAME_LENGTH];
+            for (int i = 0; i < Student.NAME_LENGTH; i++) {
+                nameChars[i] = buf.getChar(pos + NAME_OFFSET + i * 2);
+            }
+            return new Student(studentId(buf, pos), new String(nameChars), gpa(buf, pos), enrollmentYear(buf, pos));
+        }
+
+        @Override
+        public byte status(ByteBuffer buf, int pos) {
+            return Student.STATUS_LIVE;
+        }
+
+        @Override public int studentId(ByteBuffer buf, int pos) { return buf.getInt(pos); }
+        @Override public double gpa(ByteBuffer buf, int pos) { return buf.getDouble(pos + GPA_OFFSET); }
+        @Override public int enrollmentYear(ByteBuffer buf, int pos) { return buf.getInt(pos + YEAR_OFFSET); }
+    }
+
+    private static final class Legacy extends RecordFormat {
+        private static final int ID_OFFSET = 1;
+        private static final int NAME_OFFSET = ID_OFFSET + 4;
+        private static final int GPA_OFFSET = NAME_OFFSET + Student.NAME_LENGTH * 2;
+        private static final int YEAR_OFFSET = GPA_OFFSET + 8;
+
+        @Override public int version() { return 1; }
+        @Override public int recordSize() { return Student.RECORD_SIZE; }
+        @Override public int dataStart() { return 0; }
+
+        @Override
+        public void encode(Student student, ByteBuffer buf, int pos, NameOverflow overflow) {
+            String name = student.getName();
+            if (name.length() > Student.NAME_LENGTH) name = name.substring(0, Student.NAME_LENGTH);
+            String padded = String.format("%-" + Student.NAME_LENGTH + "s", name);
+            buf.put(pos, Student.STATUS_LIVE);
+            buf.putInt(pos + ID_OFFSET, student.getStudentId());
+            for (int i = 0; i < Student.NAME_LENGTH; i++) {
+                buf.putChar(pos + NAME_OFFSET + i * 2, padded.charAt(i));
+            }
+            buf.putDouble(pos + GPA_OFFSET, student.getGpa());
+            buf.putInt(pos + YEAR_OFFSET, student.getEnrollmentYear());
+        }
+
+        @Override
+        public Student decode(ByteBuffer buf, int pos, NameOverflow overflow) {
+            if (buf.get(pos) != Student.STATUS_LIVE) return null;
+            char[] nameChars = new char[Student.NAME_LENGTH];
+            for (int i = 0; i < Student.NAME_LENGTH; i++) {
+                nameChars[i] = buf.getChar(pos + NAME_OFFSET + i * 2);
+            }
+            return new Student(studentId(buf, pos), new String(nameChars), gpa(buf, pos), enrollmentYear(buf, pos));
+        }
+
+        @Override public int studentId(ByteBuffer buf, int pos) { return buf.getInt(pos + ID_OFFSET); }
+        @Override public double gpa(ByteBuffer buf, int pos) { return buf.getDouble(pos + GPA_OFFSET); }
+        @Override public int enrollmentYear(ByteBuffer buf, int pos) { return buf.getInt(pos + YEAR_OFFSET); }
+    }
+
+    /**
+     * Version 2: {@code [status:1][id:4][gpa:8][year:4][nameLength:2][name:29]}.
+     * Names up to 29 UTF-8 bytes are stored inline; longer ones are appended to
+     * the {@link NameOverflow} file and the inline area holds their offset.
+     */
+    private static final class Utf8 extends RecordFormat {
+        private static final int ID_OFFSET = 1;
+        private static final int GPA_OFFSET = ID_OFFSET + 4;
+        private static final int YEAR_OFFSET = GPA_OFFSET + 8;
+        private static final int NAME_LENGTH_OFFSET = YEAR_OFFSET + 4;
+        private static final int NAME_OFFSET = NAME_LENGTH_OFFSET + 2;
+        private static final int INLINE_NAME_BYTES = 29;
+        private static final int RECORD_SIZE = NAME_OFFSET + INLINE_NAME_BYTES;
+
+        @Override public int version() { return 2; }
+        @Override public int recordSize() { return RECORD_SIZE; }
+        @Override public int dataStart() { return RECORD_SIZE; }
+
+        @Override
+        public void encode(Student student, ByteBuffer buf, int pos, NameOverflow overflow) throws IOException {
+            byte[] name = student.getName().getBytes(StandardCharsets.UTF_8);
+            if (name.length > 0xFFFF) throw new IllegalArgumentException("Name longer than 65535 bytes");
+            buf.put(pos, Student.STATUS_LIVE);
+            buf.putInt(pos + ID_OFFSET, student.getStudentId());
+            buf.putDouble(pos + GPA_OFFSET, student.getGpa());
+            buf.putInt(pos + YEAR_OFFSET, student.getEnrollmentYear());
+            buf.putShort(pos + NAME_LENGTH_OFFSET, (short) name.length);
+            if (name.length <= INLINE_NAME_BYTES) {
+                for (int i = 0; i < INLINE_NAME_BYTES; i++) {
+                    buf.put(pos + NAME_OFFSET + i, i < name.length ? name[i] : 0);
+                }
+            } else {
+                buf.putLong(pos + NAME_OFFSET, overflow.append(name));
+            }
+        }
+
+        @Override
+        public Student decode(ByteBuffer buf, int pos, NameOverflow overflow) throws IOException {
+            if (buf.get(pos) != Student.STATUS_LIVE) return null;
+            int length = buf.getShort(pos + NAME_LENGTH_OFFSET) & 0xFFFF;
+            byte[] name;
+            if (length <= INLINE_NAME_BYTES) {
+                name = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    name[i] = buf.get(pos + NAME_OFFSET + i);
+                }
+            } else {
+                name = overflow.read(buf.getLong(pos + NAME_OFFSET), length);
+            }
+            return new Student(studentId(buf, pos), new String(name, StandardCharsets.UTF_8),
+                    gpa(buf, pos), enrollmentYear(buf, pos));
+        }
+
+        @Override public int studentId(ByteBuffer buf, int pos) { return buf.getInt(pos + ID_OFFSET); }
+        @Override public double gpa(ByteBuffer buf, int pos) { return buf.getDouble(pos + GPA_OFFSET); }
+        @Override public int enrollmentYear(ByteBuffer buf, int pos) { return buf.getInt(pos + YEAR_OFFSET); }
+    }
+}
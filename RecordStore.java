@@ -0,0 +1,41 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Fixed-size slot storage for {@link Student} records. Offsets are byte offsets
+ * of slots: {@code format().dataStart()} plus a multiple of {@code format().recordSize()}.
+ */
+public interface RecordStore extends Closeable {
+    RecordFormat format();
+
+    /** Returns the student in the slot, or null if the slot is deleted or empty. */
+    Student read(long offset) throws IOException;
+
+    void write(long offset, Student student) throws IOException;
+
+    /** Writes consecutive slots starting at {@code offset}. */
+    void writeBatch(long offset, List<Student> students) throws IOException;
+
+    void markDeleted(long offset) throws IOException;
+
+    /**
+     * Reads the raw bytes of consecutive slots starting at {@code offset} into the
+     * remaining space of {@code dst}, for scans that decode many slots at once.
+     */
+    void readSlots(long offset, ByteBuffer dst) throws IOException;
+
+    /** Decodes a slot read by {@link #readSlots}, or returns null if it is not live. */
+    Student decode(ByteBuffer buf, int pos) throws IOException;
+
+    /** Byte length of the store, including the header slot if the format has one. */
+    long length() throws IOException;
+
+    void clear() throws IOException;
+
+    /** Drops the slots from {@code length} on, e.g. to undo appends that failed partway. */
+    void truncate(long length) throws IOException;
+
+    /** Forces written slots and long names to disk. */
+    void force() throws IOException;
+}
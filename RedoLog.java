@@ -0,0 +1,104 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Redo log of committed transactions, kept in an {@link IndexJournal}. A commit
+ * appends one record per changed slot followed by a commit marker; records not
+ * followed by a marker were never committed and are dropped on replay. Every
+ * record carries the full new and old contents of its slot, so applying one
+ * twice is harmless and replay needs nothing but the log.
+ */
+class RedoLog implements Closeable {
+    private static final byte OP_WRITE = 1;
+    private static final byte OP_DELETE = 2;
+    private static final byte OP_COMMIT = 3;
+
+    /** One slot change: {@code updated} is null for a delete, {@code old} is null for a new record. */
+    static final class Entry {
+        final long offset;
+        final Student updated;
+        final Student old;
+
+        Entry(long offset, Student updated, Student old) {
+            this.offset = offset;
+            this.updated = updated;
+            this.old = old;
+        }
+    }
+
+    private final IndexJournal journal;
+
+    RedoLog(String path, DatabaseMetrics.FileMetrics io) {
+        // an update carries two students, whose names may each take up to 64 KB
+        this.journal = new IndexJournal(path, io, true);
+    }
+
+    /**
+     * Appends a transaction and flushes it, forcing it to disk if {@code force} is
+     * set. All entries are encoded first, so one that cannot be fails the commit
+     * before anything is logged.
+     */
+    void commit(List<Entry> entries, boolean force) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream encoder = new DataOutputStream(bytes);
+        List<byte[]> payloads = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            bytes.reset();
+            encoder.writeLong(entry.offset);
+            writeStudent(encoder, entry.updated);
+            writeStudent(encoder, entry.old);
+            payloads.add(bytes.toByteArray());
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            byte[] payload = payloads.get(i);
+            journal.append(entries.get(i).updated != null ? OP_WRITE : OP_DELETE, out -> out.write(payload));
+        }
+        journal.append(OP_COMMIT, out -> out.writeInt(entries.size()));
+        journal.flush();
+        if (force) journal.force();
+    }
+
+    /** Returns the committed transactions in the log, oldest first. */
+    List<List<Entry>> replay() throws IOException {
+        List<List<Entry>> committed = new ArrayList<>();
+        List<Entry> pending = new ArrayList<>();
+        journal.replay((op, in) -> {
+            if (op == OP_COMMIT) {
+                if (in.readInt() == pending.size()) committed.add(new ArrayList<>(pending));
+                pending.clear();
+            } else {
+                long offset = in.readLong();
+                Student updated = readStudent(in);
+                Student old = readStudent(in);
+                pending.add(new Entry(offset, op == OP_WRITE ? updated : null, old));
+            }
+        });
+        return committed;
+    }
+
+    /** Drops the log once everything in it has been applied and made durable. */
+    void truncate() throws IOException {
+        journal.truncate();
+    }
+
+    /** Writes a student or null; also the record encoding of {@link ChangeFeed}. */
+    static void writeStudent(DataOutput out, Student s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s == null) return;
+        out.writeInt(s.getStudentId());
+        RecordFormat.writeName(out, s.getName());
+        out.writeDouble(s.getGpa());
+        out.writeInt(s.getEnrollmentYear());
+    }
+
+    static Student readStudent(DataInput in) throws IOException {
+        if (!in.readBoolean()) return null;
+        return new Student(in.readInt(), RecordFormat.readName(in), in.readDouble(), in.readInt());
+    }
+
+    @Override
+    public void close() throws IOException {
+        journal.close();
+    }
+}
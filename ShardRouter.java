@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+/**
+ * Decides which shard of a {@link ShardedStudentDatabase} holds a student id.
+ * The layout is written next to every shard when it is first opened, so a
+ * sharded database must always be reopened with an equal router.
+ *
+ * <pre>
+ * ShardRouter byHash = ShardRouter.hash(8);
+ * ShardRouter byRange = ShardRouter.range(100_000, 200_000); // 3 shards
+ * </pre>
+ */
+public abstract class ShardRouter {
+    ShardRouter() {
+    }
+
+    /**
+     * Spreads ids evenly over {@code shards} shards by a hash of the id, so
+     * sequential ids land on different shards and their writes run in parallel.
+     */
+    public static ShardRouter hash(int shards) {
+        if (shards < 1) throw new IllegalArgumentException("shards must be >= 1");
+        return new Hash(shards);
+    }
+
+    /**
+     * Splits the id space at ascending {@code upperBounds}: shard 0 holds ids
+     * below the first bound, shard i ids in {@code [upperBounds[i-1], upperBounds[i])}
+     * and the last shard the rest, giving {@code upperBounds.length + 1} shards.
+     */
+    public static ShardRouter range(int... upperBounds) {
+        for (int i = 1; i < upperBounds.length; i++) {
+            if (upperBounds[i] <= upperBounds[i - 1]) throw new IllegalArgumentException("upperBounds must be ascending");
+        }
+        return new Range(upperBounds.clone());
+    }
+
+    public abstract int shardCount();
+
+    public abstract int shardOf(int studentId);
+
+    /** Identifies the layout; two routers with the same description place every id alike. */
+    public abstract String describe();
+
+    @Override
+    public String toString() {
+        return describe();
+    }
+
+    private static final class Hash extends ShardRouter {
+        private final int shards;
+
+        Hash(int shards) {
+            this.shards = shards;
+        }
+
+        @Override
+        public int shardCount() {
+            return shards;
+        }
+
+        @Override
+        public int shardOf(int studentId) {
+            // murmur3 finalizer: ids are often dense, so mix the low bits before taking the modulus
+            int h = studentId;
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return Math.floorMod(h, shards);
+        }
+
+        @Override
+        public String describe() {
+            return "hash(" + shards + ")";
+        }
+    }
+
+    private static final class Range extends ShardRouter {
+        private final int[] upperBounds;
+
+        Range(int[] upperBounds) {
+            this.upperBounds = upperBounds;
+        }
+
+        @Override
+        public int shardCount() {
+            return upperBounds.length + 1;
+        }
+
+        @Override
+        public int shardOf(int studentId) {
+            int pos = Arrays.binarySearch(upperBounds, studentId);
+            return pos >= 0 ? pos + 1 : -pos - 1;
+        }
+
+        @Override
+        public String describe() {
+            return "range" + Arrays.toString(upperBounds);
+        }
+    }
+}
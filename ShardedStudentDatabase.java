@@ -0,0 +1,393 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Students partitioned by id over several independent {@link StudentDatabase}
+ * shards, each with its own data file, indexes, locks and writer. A
+ * {@link ShardRouter} picks the shard of an id, so lookups, updates and deletes
+ * by id touch one shard; searches, queries, counts and scans run on every shard
+ * in parallel and their results are merged. Shards can be placed on different
+ * disks and compacted or backed up on their own through {@link #shard}.
+ *
+ * <p>Each shard is consistent on its own, but there is no cross-shard
+ * isolation: a fan-out may see a change on one shard and not yet on another,
+ * and a {@link Transaction} from {@link #shardFor}{@code .begin()} only covers
+ * the ids of that shard.
+ */
+public class ShardedStudentDatabase {
+    private final ShardRouter router;
+    private final List<StudentDatabase> shards;
+    private final ExecutorService executor;
+
+    /** Hash-shards over {@code shardCount} databases in the directory {@code dbName + "_shards"}. */
+    public ShardedStudentDatabase(String dbName, int shardCount) {
+        this(dbName, ShardRouter.hash(shardCount), new DatabaseOptions());
+    }
+
+    public ShardedStudentDatabase(String dbName, ShardRouter router, DatabaseOptions options) {
+        this(defaultShardNames(dbName, router.shardCount()), router, options);
+    }
+
+    /**
+     * Opens shard i at {@code shardNames.get(i)}, a database name as for
+     * {@link StudentDatabase#StudentDatabase(String, DatabaseOptions)}; missing
+     * parent directories are created. Shards are opened in parallel.
+     */
+    public ShardedStudentDatabase(List<String> shardNames, ShardRouter router, DatabaseOptions options) {
+        if (shardNames.size() != router.shardCount()) {
+            throw new IllegalArgumentException("Router has " + router.shardCount() + " shards, got " + shardNames.size() + " names");
+        }
+        this.router = router;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(shardNames.size(), task -> {
+            Thread thread = new Thread(task, "studentdb-shard-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<CompletableFuture<StudentDatabase>> opening = new ArrayList<>();
+        for (int i = 0; i < shardNames.size(); i++) {
+            String name = shardNames.get(i);
+            int shard = i;
+            opening.add(CompletableFuture.supplyAsync(() -> openShard(name, shard, options), executor));
+        }
+        try {
+            CompletableFuture.allOf(opening.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            for (CompletableFuture<StudentDatabase> future : opening) {
+                if (future.isCompletedExceptionally()) continue;
+                try {
+                    future.join().close();
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            executor.shutdown();
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+        List<StudentDatabase> opened = new ArrayList<>();
+        for (CompletableFuture<StudentDatabase> future : opening) {
+            opened.add(future.join());
+        }
+        this.shards = Collections.unmodifiableList(opened);
+    }
+
+    private static List<String> defaultShardNames(String dbName, int shardCount) {
+        List<String> names = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            names.add(Paths.get(dbName + "_shards", "shard" + i).toString());
+        }
+        return names;
+    }
+
+    /** Opens one shard, recording its place in the layout on first use and checking it afterwards. */
+    private StudentDatabase openShard(String name, int shard, DatabaseOptions options) {
+        Path layout = Paths.get(name + ".shard");
+        String expected = router.describe() + " shard " + shard;
+        try {
+            Path parent = layout.toAbsolutePath().getParent();
+            if (parent != null) Files.createDirectories(parent);
+            if (Files.exists(layout)) {
+                String actual = new String(Files.readAllBytes(layout), StandardCharsets.UTF_8).trim();
+                if (!actual.equals(expected)) {
+                    throw new IllegalStateException("Шард " + name + " создан для схемы " + actual + ", а не " + expected);
+                }
+            } else {
+                Files.write(layout, expected.getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Не удалось открыть шард " + name, e);
+        }
+        return new StudentDatabase(name, options);
+    }
+
+    public ShardRouter getRouter() {
+        return router;
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    /** Shard {@code index}, for maintenance such as {@link StudentDatabase#compact} or {@link StudentDatabase#backup}. */
+    public StudentDatabase shard(int index) {
+        return shards.get(index);
+    }
+
+    /** The shard that holds {@code studentId}. */
+    public StudentDatabase shardFor(int studentId) {
+        return shards.get(router.shardOf(studentId));
+    }
+
+    public boolean addStudent(Student student) throws IOException {
+        return shardFor(student.getStudentId()).addStudent(student);
+    }
+
+    /**
+     * Splits the students by shard and bulk-loads every shard in parallel through
+     * {@link StudentDatabase#addStudents}.
+     *
+     * @return the number of students added
+     */
+    public int addStudents(Iterable<Student> students) throws IOException {
+        List<List<Student>> parts = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Student student : students) {
+            parts.get(router.shardOf(student.getStudentId())).add(student);
+        }
+        int added = 0;
+        for (int count : fanOut((shard, i) -> parts.get(i).isEmpty() ? 0 : shard.addStudents(parts.get(i)))) {
+            added += count;
+        }
+        return added;
+    }
+
+    public boolean deleteStudentById(int studentId) throws IOException {
+        return shardFor(studentId).deleteStudentById(studentId);
+    }
+
+    public int deleteStudentsByField(String field, Object value) throws IOException {
+        int deleted = 0;
+        for (int count : fanOut((shard, i) -> shard.deleteStudentsByField(field, value))) {
+            deleted += count;
+        }
+        return deleted;
+    }
+
+    public void updateStudent(Student updated) throws IOException {
+        shardFor(updated.getStudentId()).updateStudent(updated);
+    }
+
+    public Student findStudentById(int studentId) throws IOException {
+        return shardFor(studentId).findStudentById(studentId);
+    }
+
+    public List<Student> findStudentsByField(String field, Object value) throws IOException {
+        return concat(fanOut((shard, i) -> shard.findStudentsByField(field, value)));
+    }
+
+    public List<Student> findStudentsByNameIgnoreCase(String name) throws IOException {
+        return concat(fanOut((shard, i) -> shard.findStudentsByNameIgnoreCase(name)));
+    }
+
+    /** Case-insensitive prefix search in name order, returning at most {@code limit} students. */
+    public List<Student> findStudentsByNamePrefix(String prefix, int limit) throws IOException {
+        List<Student> merged = concat(fanOut((shard, i) -> shard.findStudentsByNamePrefix(prefix, limit)));
+        return top(merged, Comparator.comparing(s -> NameIndex.normalize(s.getName())), limit);
+    }
+
+    public List<Student> findStudentsByNamePrefix(String prefix) throws IOException {
+        return findStudentsByNamePrefix(prefix, Integer.MAX_VALUE);
+    }
+
+    public List<Student> findStudentsByGpaRange(double minGpa, double maxGpa) throws IOException {
+        return concat(fanOut((shard, i) -> shard.findStudentsByGpaRange(minGpa, maxGpa)));
+    }
+
+    public List<Student> findStudentsByYearRange(int fromYear, int toYear) throws IOException {
+        return concat(fanOut((shard, i) -> shard.findStudentsByYearRange(fromYear, toYear)));
+    }
+
+    public List<Student> findTopStudentsByGpa(int limit) throws IOException {
+        if (limit <= 0) return new ArrayList<>();
+        List<Student> merged = concat(fanOut((shard, i) -> shard.findTopStudentsByGpa(limit)));
+        return top(merged, Comparator.comparingDouble(Student::getGpa).reversed(), limit);
+    }
+
+    /**
+     * Runs the query on every shard and merges the results. Each shard already
+     * applies the order and the limit, so at most {@code limit} students per shard
+     * are merged. Without an order the results come shard by shard.
+     */
+    public List<Student> query(Query query) throws IOException {
+        List<Student> merged = concat(fanOut((shard, i) -> shard.query(query)));
+        int limit = query.limit() == 0 ? Integer.MAX_VALUE : query.limit();
+        return query.order() == null ? head(merged, limit) : top(merged, query.order(), limit);
+    }
+
+    /** The plan of every shard, one line each. */
+    public String explain(Query query) throws IOException {
+        StringBuilder out = new StringBuilder();
+        List<String> plans = fanOut((shard, i) -> shard.explain(query));
+        for (int i = 0; i < plans.size(); i++) {
+            out.append("shard ").append(i).append(": ").append(plans.get(i)).append('\n');
+        }
+        return out.toString();
+    }
+
+    public long count(Condition condition) throws IOException {
+        long total = 0;
+        for (long count : fanOut((shard, i) -> shard.count(condition))) {
+            total += count;
+        }
+        return total;
+    }
+
+    public SortedMap<Integer, Long> countByYear(Condition condition) throws IOException {
+        SortedMap<Integer, Long> counts = new TreeMap<>();
+        for (SortedMap<Integer, Long> part : fanOut((shard, i) -> shard.countByYear(condition))) {
+            part.forEach((year, count) -> counts.merge(year, count, Long::sum));
+        }
+        return counts;
+    }
+
+    public DoubleSummaryStatistics aggregateGpa(RecordFilter filter) throws IOException {
+        DoubleSummaryStatistics total = new DoubleSummaryStatistics();
+        for (DoubleSummaryStatistics part : fanOut((shard, i) -> shard.aggregateGpa(filter))) {
+            total.combine(part);
+        }
+        return total;
+    }
+
+    public SortedMap<Integer, DoubleSummaryStatistics> aggregateGpaByYear(RecordFilter filter) throws IOException {
+        SortedMap<Integer, DoubleSummaryStatistics> total = new TreeMap<>();
+        for (SortedMap<Integer, DoubleSummaryStatistics> part : fanOut((shard, i) -> shard.aggregateGpaByYear(filter))) {
+            part.forEach((year, stats) -> total.computeIfAbsent(year, k -> new DoubleSummaryStatistics()).combine(stats));
+        }
+        return total;
+    }
+
+    /** Lazily streams every shard in turn, see {@link StudentDatabase#streamStudents}. */
+    public Stream<Student> streamStudents() throws IOException {
+        Stream<Student> result = Stream.empty();
+        for (StudentDatabase shard : shards) {
+            result = Stream.concat(result, shard.streamStudents());
+        }
+        return result;
+    }
+
+    public List<Student> getAllStudents() throws IOException {
+        return concat(fanOut((shard, i) -> shard.getAllStudents()));
+    }
+
+    public void clear() throws IOException {
+        fanOut((shard, i) -> {
+            shard.clear();
+            return null;
+        });
+    }
+
+    /** Compacts every shard in parallel; use {@link #shard} to compact one. */
+    public void compact() throws IOException {
+        fanOut((shard, i) -> {
+            shard.compact();
+            return null;
+        });
+    }
+
+    /**
+     * Backs up every shard in parallel, shard i as {@code backupName + "-" + i}.
+     * Each shard's backup is a point-in-time copy of that shard, but the shards
+     * are not pinned at the same moment.
+     */
+    public void backup(String backupName) throws IOException {
+        fanOut((shard, i) -> {
+            shard.backup(shardBackupName(backupName, i));
+            return null;
+        });
+    }
+
+    /** Like {@link #backup}, each shard incremental against its part of {@code baseName}. */
+    public void backupIncremental(String backupName, String baseName) throws IOException {
+        fanOut((shard, i) -> {
+            shard.backupIncremental(shardBackupName(backupName, i), shardBackupName(baseName, i));
+            return null;
+        });
+    }
+
+    /** Restores every shard from a backup taken by {@link #backup} or {@link #backupIncremental}. */
+    public void restoreFromBackup(String backupName) throws IOException {
+        fanOut((shard, i) -> {
+            shard.restoreFromBackup(shardBackupName(backupName, i));
+            return null;
+        });
+    }
+
+    private static String shardBackupName(String backupName, int shard) {
+        return backupName + "-" + shard;
+    }
+
+    public void close() throws IOException {
+        try {
+            fanOut((shard, i) -> {
+                shard.close();
+                return null;
+            });
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @FunctionalInterface
+    private interface ShardCall<T> {
+        T apply(StudentDatabase shard, int index) throws IOException;
+    }
+
+    /**
+     * Runs {@code call} on every shard on the shard threads and returns the results
+     * in shard order. Waits for all shards even if one fails, then rethrows the
+     * first failure.
+     */
+    private <T> List<T> fanOut(ShardCall<T> call) throws IOException {
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            StudentDatabase shard = shards.get(i);
+            int index = i;
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return call.apply(shard, index);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    private static List<Student> concat(List<List<Student>> parts) {
+        int size = 0;
+        for (List<Student> part : parts) {
+            size += part.size();
+        }
+        List<Student> result = new ArrayList<>(size);
+        for (List<Student> part : parts) {
+            result.addAll(part);
+        }
+        return result;
+    }
+
+    /** Stable sort, so ties keep shard order, then the first {@code limit}. */
+    private static List<Student> top(List<Student> students, Comparator<Student> order, int limit) {
+        students.sort(order);
+        return head(students, limit);
+    }
+
+    private static List<Student> head(List<Student> students, int limit) {
+        return students.size() > limit ? new ArrayList<>(students.subList(0, limit)) : students;
+    }
+}
@@ -0,0 +1,394 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of slot numbers in the style of a Roaring bitmap. Slots are
+ * split by their high 16 bits into chunks; a chunk holding at most
+ * {@value #ARRAY_MAX} slots keeps them as a sorted {@code char[]}, a fuller one
+ * as a 65536-bit bitset. Dense cohorts therefore cost one bit per slot and
+ * sparse ones two bytes per member, and set operations work a chunk at a time.
+ * Not thread-safe; {@link #and} and {@link #or} return new bitmaps.
+ */
+final class SlotBitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITSET_WORDS = 1024;
+
+    private int[] keys = new int[4];
+    private Object[] chunks = new Object[4];
+    private int[] cardinalities = new int[4];
+    private int size;
+
+    void add(int slot) {
+        int i = chunkIndex(slot >>> 16);
+        if (i < 0) {
+            i = -i - 1;
+            insertChunk(i, slot >>> 16, new char[4], 0);
+        }
+        char low = (char) slot;
+        Object chunk = chunks[i];
+        int cardinality = cardinalities[i];
+        if (chunk instanceof long[]) {
+            long[] bits = (long[]) chunk;
+            long before = bits[low >>> 6];
+            bits[low >>> 6] = before | (1L << low);
+            if (bits[low >>> 6] != before) cardinalities[i]++;
+            return;
+        }
+        char[] values = (char[]) chunk;
+        int pos = Arrays.binarySearch(values, 0, cardinality, low);
+        if (pos >= 0) return;
+        pos = -pos - 1;
+        if (cardinality == ARRAY_MAX) {
+            long[] bits = toBitset(values, cardinality);
+            bits[low >>> 6] |= 1L << low;
+            chunks[i] = bits;
+        } else {
+            if (cardinality == values.length) values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+            System.arraycopy(values, pos, values, pos + 1, cardinality - pos);
+            values[pos] = low;
+            chunks[i] = values;
+        }
+        cardinalities[i]++;
+    }
+
+    boolean remove(int slot) {
+        int i = chunkIndex(slot >>> 16);
+        if (i < 0) return false;
+        char low = (char) slot;
+        Object chunk = chunks[i];
+        int cardinality = cardinalities[i];
+        if (chunk instanceof long[]) {
+            long[] bits = (long[]) chunk;
+            if ((bits[low >>> 6] & (1L << low)) == 0) return false;
+            bits[low >>> 6] &= ~(1L << low);
+            if (--cardinalities[i] == ARRAY_MAX) chunks[i] = toArray(bits, ARRAY_MAX);
+            return true;
+        }
+        char[] values = (char[]) chunk;
+        int pos = Arrays.binarySearch(values, 0, cardinality, low);
+        if (pos < 0) return false;
+        System.arraycopy(values, pos + 1, values, pos, cardinality - pos - 1);
+        if (--cardinalities[i] == 0) removeChunk(i);
+        return true;
+    }
+
+    boolean contains(int slot) {
+        int i = chunkIndex(slot >>> 16);
+        if (i < 0) return false;
+        char low = (char) slot;
+        Object chunk = chunks[i];
+        if (chunk instanceof long[]) return (((long[]) chunk)[low >>> 6] & (1L << low)) != 0;
+        return Arrays.binarySearch((char[]) chunk, 0, cardinalities[i], low) >= 0;
+    }
+
+    long cardinality() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += cardinalities[i];
+        }
+        return total;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    SlotBitmap and(SlotBitmap other) {
+        SlotBitmap result = new SlotBitmap();
+        for (int i = 0, j = 0; i < size && j < other.size; ) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Object a = chunks[i];
+                Object b = other.chunks[j];
+                if (a instanceof long[] && b instanceof long[]) {
+                    long[] bits = new long[BITSET_WORDS];
+                    int cardinality = 0;
+                    for (int w = 0; w < BITSET_WORDS; w++) {
+                        bits[w] = ((long[]) a)[w] & ((long[]) b)[w];
+                        cardinality += Long.bitCount(bits[w]);
+                    }
+                    result.appendChunk(keys[i], bits, cardinality);
+                } else if (a instanceof long[]) {
+                    result.appendArray(keys[i], filter((char[]) b, other.cardinalities[j], (long[]) a));
+                } else if (b instanceof long[]) {
+                    result.appendArray(keys[i], filter((char[]) a, cardinalities[i], (long[]) b));
+                } else {
+                    result.appendArray(keys[i], common((char[]) a, cardinalities[i], (char[]) b, other.cardinalities[j]));
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /** Size of the intersection, without building it. */
+    long andCardinality(SlotBitmap other) {
+        long total = 0;
+        for (int i = 0, j = 0; i < size && j < other.size; ) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                if (!(chunks[i] instanceof long[]) && !(other.chunks[j] instanceof long[])) {
+                    total += countCommon((char[]) chunks[i], cardinalities[i], (char[]) other.chunks[j], other.cardinalities[j]);
+                } else if (!(chunks[i] instanceof long[])) {
+                    total += countIn((char[]) chunks[i], cardinalities[i], (long[]) other.chunks[j]);
+                } else if (!(other.chunks[j] instanceof long[])) {
+                    total += countIn((char[]) other.chunks[j], other.cardinalities[j], (long[]) chunks[i]);
+                } else {
+                    long[] a = (long[]) chunks[i];
+                    long[] b = (long[]) other.chunks[j];
+                    for (int w = 0; w < BITSET_WORDS; w++) {
+                        total += Long.bitCount(a[w] & b[w]);
+                    }
+                }
+                i++;
+                j++;
+            }
+        }
+        return total;
+    }
+
+    SlotBitmap or(SlotBitmap other) {
+        SlotBitmap result = copy();
+        result.orInPlace(other);
+        return result;
+    }
+
+    /** Adds every slot of {@code other} to this bitmap. */
+    void orInPlace(SlotBitmap other) {
+        for (int j = 0; j < other.size; j++) {
+            int i = chunkIndex(other.keys[j]);
+            if (i < 0) {
+                insertChunk(-i - 1, other.keys[j], other.copyChunk(j), other.cardinalities[j]);
+                continue;
+            }
+            Object theirs = other.chunks[j];
+            if (!(chunks[i] instanceof long[]) && !(theirs instanceof long[])
+                    && cardinalities[i] + other.cardinalities[j] <= ARRAY_MAX) {
+                char[] merged = merge((char[]) chunks[i], cardinalities[i], (char[]) theirs, other.cardinalities[j]);
+                chunks[i] = merged;
+                cardinalities[i] = merged.length;
+                continue;
+            }
+            long[] bits = chunks[i] instanceof long[] ? (long[]) chunks[i] : toBitset((char[]) chunks[i], cardinalities[i]);
+            int cardinality = 0;
+            if (theirs instanceof long[]) {
+                for (int w = 0; w < BITSET_WORDS; w++) {
+                    bits[w] |= ((long[]) theirs)[w];
+                    cardinality += Long.bitCount(bits[w]);
+                }
+            } else {
+                cardinality = cardinalities[i];
+                char[] values = (char[]) theirs;
+                for (int k = 0; k < other.cardinalities[j]; k++) {
+                    long before = bits[values[k] >>> 6];
+                    bits[values[k] >>> 6] = before | (1L << values[k]);
+                    if (bits[values[k] >>> 6] != before) cardinality++;
+                }
+            }
+            chunks[i] = cardinality <= ARRAY_MAX ? toArray(bits, cardinality) : bits;
+            cardinalities[i] = cardinality;
+        }
+    }
+
+    /** Union of many bitmaps, built in bitsets and compacted once instead of merging pairwise. */
+    static SlotBitmap union(Collection<SlotBitmap> bitmaps) {
+        TreeMap<Integer, long[]> accumulated = new TreeMap<>();
+        for (SlotBitmap bitmap : bitmaps) {
+            for (int i = 0; i < bitmap.size; i++) {
+                long[] bits = accumulated.computeIfAbsent(bitmap.keys[i], k -> new long[BITSET_WORDS]);
+                Object chunk = bitmap.chunks[i];
+                if (chunk instanceof long[]) {
+                    long[] theirs = (long[]) chunk;
+                    for (int w = 0; w < BITSET_WORDS; w++) {
+                        bits[w] |= theirs[w];
+                    }
+                } else {
+                    char[] values = (char[]) chunk;
+                    for (int k = 0; k < bitmap.cardinalities[i]; k++) {
+                        bits[values[k] >>> 6] |= 1L << values[k];
+                    }
+                }
+            }
+        }
+        SlotBitmap result = new SlotBitmap();
+        for (Map.Entry<Integer, long[]> entry : accumulated.entrySet()) {
+            int cardinality = 0;
+            for (long word : entry.getValue()) {
+                cardinality += Long.bitCount(word);
+            }
+            result.appendChunk(entry.getKey(), entry.getValue(), cardinality);
+        }
+        return result;
+    }
+
+    SlotBitmap copy() {
+        SlotBitmap copy = new SlotBitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(size, 4));
+        copy.cardinalities = Arrays.copyOf(cardinalities, Math.max(size, 4));
+        copy.chunks = new Object[Math.max(size, 4)];
+        for (int i = 0; i < size; i++) {
+            copy.chunks[i] = copyChunk(i);
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    /** Calls {@code action} for every slot in ascending order. */
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            int high = keys[i] << 16;
+            if (chunks[i] instanceof long[]) {
+                long[] bits = (long[]) chunks[i];
+                for (int w = 0; w < BITSET_WORDS; w++) {
+                    for (long word = bits[w]; word != 0; word &= word - 1) {
+                        action.accept(high | (w << 6) | Long.numberOfTrailingZeros(word));
+                    }
+                }
+            } else {
+                char[] values = (char[]) chunks[i];
+                for (int k = 0; k < cardinalities[i]; k++) {
+                    action.accept(high | values[k]);
+                }
+            }
+        }
+    }
+
+    private int chunkIndex(int key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insertChunk(int i, int key, Object chunk, int cardinality) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            chunks = Arrays.copyOf(chunks, size * 2);
+            cardinalities = Arrays.copyOf(cardinalities, size * 2);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(chunks, i, chunks, i + 1, size - i);
+        System.arraycopy(cardinalities, i, cardinalities, i + 1, size - i);
+        keys[i] = key;
+        chunks[i] = chunk;
+        cardinalities[i] = cardinality;
+        size++;
+    }
+
+    private void removeChunk(int i) {
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(chunks, i + 1, chunks, i, size - i - 1);
+        System.arraycopy(cardinalities, i + 1, cardinalities, i, size - i - 1);
+        chunks[--size] = null;
+    }
+
+    /** Appends a chunk with a key above all present ones, storing it as an array if it is sparse. */
+    private void appendChunk(int key, Object chunk, int cardinality) {
+        if (cardinality == 0) return;
+        if (chunk instanceof long[] && cardinality <= ARRAY_MAX) chunk = toArray((long[]) chunk, cardinality);
+        insertChunk(size, key, chunk, cardinality);
+    }
+
+    private Object copyChunk(int i) {
+        Object chunk = chunks[i];
+        return chunk instanceof long[] ? ((long[]) chunk).clone() : Arrays.copyOf((char[]) chunk, cardinalities[i]);
+    }
+
+    private void appendArray(int key, char[] values) {
+        if (values.length > 0) insertChunk(size, key, values, values.length);
+    }
+
+    private static long[] toBitset(char[] values, int cardinality) {
+        long[] bits = new long[BITSET_WORDS];
+        for (int k = 0; k < cardinality; k++) {
+            bits[values[k] >>> 6] |= 1L << values[k];
+        }
+        return bits;
+    }
+
+    private static char[] toArray(long[] bits, int cardinality) {
+        char[] values = new char[cardinality];
+        int n = 0;
+        for (int w = 0; w < BITSET_WORDS; w++) {
+            for (long word = bits[w]; word != 0; word &= word - 1) {
+                values[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+            }
+        }
+        return values;
+    }
+
+    private static int countCommon(char[] a, int na, char[] b, int nb) {
+        int count = 0;
+        for (int i = 0, j = 0; i < na && j < nb; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    private static char[] common(char[] a, int na, char[] b, int nb) {
+        char[] result = new char[Math.min(na, nb)];
+        int n = 0;
+        for (int i = 0, j = 0; i < na && j < nb; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static char[] filter(char[] values, int cardinality, long[] bits) {
+        char[] result = new char[cardinality];
+        int n = 0;
+        for (int k = 0; k < cardinality; k++) {
+            if ((bits[values[k] >>> 6] & (1L << values[k])) != 0) result[n++] = values[k];
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static char[] merge(char[] a, int na, char[] b, int nb) {
+        char[] result = new char[na + nb];
+        int i = 0, j = 0, n = 0;
+        while (i < na || j < nb) {
+            char next;
+            if (j == nb || (i < na && a[i] < b[j])) {
+                next = a[i++];
+            } else if (i == na || a[i] > b[j]) {
+                next = b[j++];
+            } else {
+                next = a[i++];
+                j++;
+            }
+            result[n++] = next;
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    private static int countIn(char[] values, int cardinality, long[] bits) {
+        int count = 0;
+        for (int k = 0; k < cardinality; k++) {
+            if ((bits[values[k] >>> 6] & (1L << values[k])) != 0) count++;
+        }
+        return count;
+    }
+}
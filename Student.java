@@ -1,9 +1,13 @@
 import java.io.*;
+import java.nio.ByteBuffer;
 
 public class Student implements Serializable {
     private static final long serialVersionUID = 1L;
+    /** Name width and record size of the legacy layout, see {@link RecordFormat#LEGACY}. */
     public static final int NAME_LENGTH = 32;
-    public static final int RECORD_SIZE = 4 + NAME_LENGTH * 2 + 8 + 4;
+    public static final int RECORD_SIZE = 1 + 4 + NAME_LENGTH * 2 + 8 + 4;
+    public static final byte STATUS_LIVE = 1;
+    public static final byte STATUS_DELETED = 2;
 
     private int studentId;
     private String name;
@@ -12,47 +16,36 @@ public class Student implements Serializable {
 
     public Student(int studentId, String name, double gpa, int enrollmentYear) {
         this.studentId = studentId;
-        this.name = padString(name, NAME_LENGTH);
+        this.name = normalizeName(name);
         this.gpa = gpa;
         this.enrollmentYear = enrollmentYear;
     }
 
     public int getStudentId() { return studentId; }
-    public String getName() { return trimString(name); }
+    public String getName() { return name; }
     public double getGpa() { return gpa; }
     public int getEnrollmentYear() { return enrollmentYear; }
 
-    public void setName(String name) { this.name = padString(name, NAME_LENGTH); }
+    public void setName(String name) { this.name = normalizeName(name); }
     public void setGpa(double gpa) { this.gpa = gpa; }
     public void setEnrollmentYear(int year) { this.enrollmentYear = year; }
 
-    private static String padString(String str, int length) {
-        if (str == null) str = "";
-        if (str.length() > length) return str.substring(0, length);
-        return String.format("%-" + length + "s", str);
-    }
-
-    private static String trimString(String str) {
-        return str.trim();
+    private static String normalizeName(String str) {
+        return str == null ? "" : str.trim();
     }
 
+    /** Writes the record at the file pointer in the legacy layout. */
     public void writeTo(RandomAccessFile file) throws IOException {
-        file.writeInt(studentId);
-        file.writeChars(padString(name, NAME_LENGTH));
-        file.writeDouble(gpa);
-        file.writeInt(enrollmentYear);
+        byte[] record = new byte[RECORD_SIZE];
+        RecordFormat.LEGACY.encode(this, ByteBuffer.wrap(record), 0, null);
+        file.write(record);
     }
 
+    /** Reads a legacy-layout record at the file pointer, returning null for a deleted slot. */
     public static Student readFrom(RandomAccessFile file) throws IOException {
-        int id = file.readInt();
-        char[] nameChars = new char[NAME_LENGTH];
-        for (int i = 0; i < NAME_LENGTH; i++) {
-            nameChars[i] = file.readChar();
-        }
-        String name = new String(nameChars);
-        double gpa = file.readDouble();
-        int year = file.readInt();
-        return new Student(id, trimString(name), gpa, year);
+        byte[] record = new byte[RECORD_SIZE];
+        file.readFully(record);
+        return RecordFormat.LEGACY.decode(ByteBuffer.wrap(record), 0, null);
     }
 
     @Override
@@ -0,0 +1,87 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of student records keyed by id. Students are mutable, so
+ * the cache stores and hands out copies. A capacity of 0 disables caching.
+ */
+public class StudentCache {
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int size;
+
+        Stats(long hits, long misses, long evictions, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public long getEvictions() { return evictions; }
+        public int getSize() { return size; }
+
+        public double getHitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d, misses=%d, evictions=%d, size=%d", hits, misses, evictions, size);
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<Integer, Student> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public StudentCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Integer, Student>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Student> eldest) {
+                if (size() <= StudentCache.this.capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    public synchronized Student get(int studentId) {
+        if (capacity == 0) return null;
+        Student s = entries.get(studentId);
+        if (s == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copyOf(s);
+    }
+
+    public synchronized void put(Student student) {
+        if (capacity == 0) return;
+        entries.put(student.getStudentId(), copyOf(student));
+    }
+
+    public synchronized void invalidate(int studentId) {
+        entries.remove(studentId);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, entries.size());
+    }
+
+    private static Student copyOf(Student s) {
+        return new Student(s.getStudentId(), s.getName(), s.getGpa(), s.getEnrollmentYear());
+    }
+}
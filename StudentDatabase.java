@@ -1,114 +1,637 @@
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
+/**
+ * Fixed-record student store with an id index and secondary indexes on name, GPA
+ * and enrollment year.
+ *
+ * <p>Safe for concurrent use: lookups share a read lock and run in parallel,
+ * while mutations are serialized by a writer lock and take the write lock
+ * exclusively. {@link #compact} holds only the writer lock while it copies, so
+ * reads continue until the final swap. {@link #backup} blocks neither: it pins a
+ * point-in-time snapshot and writers save a page's old contents before changing it.
+ */
 public class StudentDatabase {
+    private static final int BULK_BATCH_SIZE = 4096;
+    private static final int SCAN_PAGE_SIZE = 1024;
+    private static final int REBUILD_CHUNK_SLOTS = 16384;
+    private static final int VERIFY_SAMPLE = 256;
+
     private String dataFilePath;
     private String indexPath;
-    private StudentIndex idIndex;
-    private ValueIndex nameIndex;
-    private ValueIndex gpaIndex;
-    private ValueIndex yearIndex;
-    private RandomAccessFile dataFile;
+    // volatile: forced by the group commit leader outside the lock
+    private volatile StudentIndex idIndex;
+    private volatile NameIndex nameIndex;
+    private volatile ValueIndex gpaIndex;
+    private volatile ValueIndex yearIndex;
+    private DatabaseOptions options;
+    private volatile RecordStore store;
+    private StudentCache cache;
+    private final DatabaseMetrics metrics;
+    private ObjectName metricsName;
+    private Deque<Long> freeSlots = new ArrayDeque<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantLock writerLock = new ReentrantLock();
+    private final ReentrantLock maintenanceLock = new ReentrantLock();
+    private BackupSnapshot snapshot;
+    private BitSet dirtyPages = new BitSet();
+    private String lastBackup;
+    private final GroupCommitter committer;
+    private final RedoLog redoLog;
+    private final ChangeFeed changeFeed;
+    private final String changeFeedPath;
+    private final List<ChangeSubscription> subscriptions = new ArrayList<>();
+    private boolean writesPending;
 
     public StudentDatabase(String dbName) {
+        this(dbName, new DatabaseOptions());
+    }
+
+    public StudentDatabase(String dbName, DatabaseOptions options) {
+        this.options = options;
+        this.metrics = options.isMetricsEnabled() ? new DatabaseMetrics() : null;
+        this.cache = new StudentCache(options.getCacheSize());
+        this.committer = new GroupCommitter(options.getDurability(), options.getGroupCommitWindowNanos(),
+                TimeUnit.NANOSECONDS, options.getGroupCommitMaxBatch(), this::forceFiles);
         this.dataFilePath = dbName + ".dat";
         this.indexPath = dbName + ".idx";
-        this.idIndex = new StudentIndex(indexPath);
-        this.nameIndex = new ValueIndex(dbName + "_name.idx");
-        this.gpaIndex = new ValueIndex(dbName + "_gpa.idx");
-        this.yearIndex = new ValueIndex(dbName + "_year.idx");
+        this.redoLog = new RedoLog(dbName + ".redo", fileMetrics(DatabaseMetrics.FileKind.REDO_LOG));
+        this.changeFeedPath = dbName + ".changes";
+        this.changeFeed = options.isChangeFeed() ? openChangeFeed() : null;
+        openIndexes();
 
+        boolean upgraded;
         try {
-            this.dataFile = new RandomAccessFile(dataFilePath, "rw");
+            upgraded = upgradeOriginalLayout();
+            this.store = openStore();
         } catch (IOException e) {
             throw new RuntimeException("Не удалось открыть файл БД", e);
         }
+        replayRedoLog();
+        rebuildIndexesIfStale(upgraded);
+        attachBitmaps();
+        loadFreeSlots();
+        if (metrics != null) registerMetrics(dbName);
     }
 
-    private long encodeGpa(double gpa) {
-        return (long) Math.round(gpa * 100);
+    private ChangeFeed openChangeFeed() {
+        try {
+            return new ChangeFeed(changeFeedPath, fileMetrics(DatabaseMetrics.FileKind.CHANGE_FEED));
+        } catch (IOException e) {
+            throw new RuntimeException("Не удалось открыть журнал изменений", e);
+        }
     }
 
-    private long encodeName(String name) {
-        return name.hashCode();
+    private void openIndexes() {
+        idIndex = new StudentIndex(indexPath, fileMetrics(DatabaseMetrics.FileKind.ID_INDEX));
+        nameIndex = new NameIndex(dataFilePath.replace(".dat", "_names.idx"), fileMetrics(DatabaseMetrics.FileKind.NAME_INDEX));
+        gpaIndex = new ValueIndex(dataFilePath.replace(".dat", "_gpa.idx"), fileMetrics(DatabaseMetrics.FileKind.GPA_INDEX));
+        yearIndex = new ValueIndex(dataFilePath.replace(".dat", "_year.idx"), fileMetrics(DatabaseMetrics.FileKind.YEAR_INDEX));
     }
 
-    public boolean addStudent(Student student) throws IOException {
-        if (idIndex.contains(student.getStudentId())) {
-            return false;
+    /** Builds the slot bitmaps of the GPA and year indexes, if enabled, for the current record layout. */
+    private void attachBitmaps() {
+        if (!options.isBitmapIndexes()) return;
+        RecordFormat format = store.format();
+        gpaIndex.useBitmaps(format.dataStart(), format.recordSize());
+        yearIndex.useBitmaps(format.dataStart(), format.recordSize());
+    }
+
+    private void registerMetrics(String dbName) {
+        try {
+            metricsName = new ObjectName("studentdb:type=DatabaseMetrics,name=" + ObjectName.quote(dbName));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(metricsName)) server.unregisterMBean(metricsName);
+            server.registerMBean(metrics, metricsName);
+        } catch (JMException e) {
+            e.printStackTrace();
+            metricsName = null;
+        }
+    }
+
+    private RecordStore openStore() throws IOException {
+        RecordStore opened = options.isMemoryMapped() ? new MappedRecordStore(dataFilePath) : new FileRecordStore(dataFilePath);
+        if (opened.format() == RecordFormat.ORIGINAL) {
+            opened.close();
+            throw new IOException("Data file in the original layout must be upgraded first: " + dataFilePath);
         }
-        dataFile.seek(dataFile.length());
-        long offset = dataFile.getFilePointer();
-        student.writeTo(dataFile);
+        return opened;
+    }
+
+    private String overflowPath() {
+        return dataFilePath + ".ovf";
+    }
 
-        idIndex.addEntry(student.getStudentId(), offset);
-        nameIndex.addEntry(encodeName(student.getName()), offset);
-        gpaIndex.addEntry(encodeGpa(student.getGpa()), offset);
-        yearIndex.addEntry(student.getEnrollmentYear(), offset);
+    /**
+     * Rewrites a data file in {@link RecordFormat#ORIGINAL the original layout}
+     * into {@link RecordFormat#CURRENT} before it is opened. That layout left
+     * deleted records in place, so the id index it was written with decides which
+     * records are kept; a file whose id index is missing or does not match is
+     * refused. Every record moves, so the indexes must be rebuilt afterwards.
+     *
+     * @return true if the file was rewritten
+     */
+    private boolean upgradeOriginalLayout() throws IOException {
+        Path dataPath = Paths.get(dataFilePath);
+        if (!Files.exists(dataPath) || Files.size(dataPath) == 0) return false;
+        Path upgradePath = Paths.get(dataFilePath + ".upgrade");
+        Path upgradeOverflow = Paths.get(upgradePath + ".ovf");
+        try (RecordStore original = new FileRecordStore(dataFilePath)) {
+            if (original.format() != RecordFormat.ORIGINAL) return false;
+            if (!Files.exists(Paths.get(indexPath)) || idIndex.isCorrupt()) {
+                throw new IOException("No usable id index to tell the live records of " + dataFilePath);
+            }
+            long[] offsets = idIndex.offsets();
+            Arrays.sort(offsets);
+            int recordSize = original.format().recordSize();
+            long length = original.length();
+            Files.deleteIfExists(upgradePath);
+            Files.deleteIfExists(upgradeOverflow);
+            try (RecordStore dst = new FileRecordStore(upgradePath.toString())) {
+                List<Student> batch = new ArrayList<>(BULK_BATCH_SIZE);
+                long batchOffset = dst.format().dataStart();
+                for (long offset : offsets) {
+                    Student s = offset % recordSize == 0 && offset + recordSize <= length ? original.read(offset) : null;
+                    if (s == null || idIndex.findOffset(s.getStudentId()) != offset) {
+                        throw new IOException("Id index does not match " + dataFilePath + " at offset " + offset);
+                    }
+                    batch.add(s);
+                    if (batch.size() == BULK_BATCH_SIZE) {
+                        dst.writeBatch(batchOffset, batch);
+                        batchOffset += (long) batch.size() * dst.format().recordSize();
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) dst.writeBatch(batchOffset, batch);
+                dst.force();
+            }
+        }
+        Files.move(upgradePath, dataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (Files.exists(upgradeOverflow)) {
+            Files.move(upgradeOverflow, Paths.get(overflowPath()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            Files.deleteIfExists(Paths.get(overflowPath()));
+        }
         return true;
     }
 
-    public boolean deleteStudentById(int studentId) throws IOException {
-        long offset = idIndex.findOffset(studentId);
-        if (offset == -1) return false;
+    private void loadFreeSlots() {
+        freeSlots.clear();
+        try {
+            int recordSize = store.format().recordSize();
+            long slots = store.length() / recordSize;
+            BitSet used = new BitSet();
+            for (long offset : idIndex.offsets()) {
+                used.set((int) (offset / recordSize));
+            }
+            int firstSlot = store.format().dataStart() / recordSize;
+            for (int slot = used.nextClearBit(firstSlot); slot < slots; slot = used.nextClearBit(slot + 1)) {
+                freeSlots.add((long) slot * recordSize);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Не удалось прочитать файл БД", e);
+        }
+    }
+
+    private void lockWrite() {
+        writerLock.lock();
+        lock.writeLock().lock();
+    }
+
+    /**
+     * Publishes the change events recorded under the write lock, releases it and,
+     * unless the database is {@link Durability#ASYNC}, waits until the writes made
+     * under it are on disk. The wait happens after the unlock so other writers can
+     * join the same force.
+     */
+    private void unlockWrite() throws IOException {
+        long ticket;
+        try {
+            if (changeFeed != null) changeFeed.publish();
+        } finally {
+            ticket = writesPending ? committer.register() : 0;
+            writesPending = false;
+            lock.writeLock().unlock();
+            writerLock.unlock();
+        }
+        committer.await(ticket);
+    }
 
-        dataFile.seek(offset);
-        Student s = Student.readFrom(dataFile);
+    /**
+     * Forces the data file and the index journals. Runs without the lock, so a
+     * store or journal closed meanwhile by compact, restore or close is skipped:
+     * those force what they replace or hand over before closing it.
+     */
+    private void forceFiles() throws IOException {
+        long started = startTimer();
+        try {
+            store.force();
+        } catch (ClosedChannelException e) {
+            // swapped out concurrently
+        }
+        idIndex.force();
+        nameIndex.force();
+        gpaIndex.force();
+        yearIndex.force();
+        if (changeFeed != null) changeFeed.force();
+        stopTimer(DatabaseMetrics.Operation.FORCE, started);
+    }
+
+    /** Appends to the change feed, if enabled; the event is published when the write lock is released. */
+    private void recordChange(ChangeEvent.Type type, Student before, Student after) throws IOException {
+        if (changeFeed != null) changeFeed.append(type, before, after);
+    }
 
-        idIndex.removeEntry(studentId);
-        nameIndex.removeEntry(encodeName(s.getName()), offset);
-        gpaIndex.removeEntry(encodeGpa(s.getGpa()), offset);
-        yearIndex.removeEntry(s.getEnrollmentYear(), offset);
+    /**
+     * Called under the write lock before the data file changes. Marks the pages
+     * dirty for the next incremental backup and, while a backup is running, saves
+     * their snapshot contents first.
+     */
+    private void beforeWrite(long offset, long length) throws IOException {
+        int first = (int) (offset / BackupManifest.PAGE_SIZE);
+        int last = (int) ((offset + length - 1) / BackupManifest.PAGE_SIZE);
+        dirtyPages.set(first, last + 1);
+        writesPending = true;
+        if (snapshot != null) snapshot.preserve(first, last);
+    }
+
+    private Student readRecord(long offset) throws IOException {
+        if (metrics == null) return store.read(offset);
+        long started = System.nanoTime();
+        Student s = store.read(offset);
+        metrics.record(DatabaseMetrics.Operation.RECORD_READ, started);
+        metrics.file(DatabaseMetrics.FileKind.DATA).read(store.format().recordSize());
+        return s;
+    }
+
+    private void writeRecord(long offset, Student student) throws IOException {
+        beforeWrite(offset, store.format().recordSize());
+        store.write(offset, student);
+        countDataWritten(store.format().recordSize());
+    }
+
+    private void writeRecords(long offset, List<Student> students) throws IOException {
+        beforeWrite(offset, (long) students.size() * store.format().recordSize());
+        store.writeBatch(offset, students);
+        countDataWritten((long) students.size() * store.format().recordSize());
+    }
+
+    private void deleteRecord(long offset) throws IOException {
+        beforeWrite(offset, 1);
+        store.markDeleted(offset);
+        countDataWritten(1);
+    }
+
+    private void countDataRead(long bytes) {
+        if (metrics != null) metrics.file(DatabaseMetrics.FileKind.DATA).read(bytes);
+    }
+
+    private void countDataWritten(long bytes) {
+        if (metrics != null) metrics.file(DatabaseMetrics.FileKind.DATA).written(bytes);
+    }
+
+    private long startTimer() {
+        return metrics == null ? 0 : System.nanoTime();
+    }
+
+    private void stopTimer(DatabaseMetrics.Operation operation, long started) {
+        if (metrics != null) metrics.record(operation, started);
+    }
+
+    private DatabaseMetrics.FileMetrics fileMetrics(DatabaseMetrics.FileKind kind) {
+        return metrics == null ? null : metrics.file(kind);
+    }
+
+    static long encodeGpa(double gpa) {
+        return (long) Math.round(gpa * 100);
+    }
+
+    /**
+     * Rebuilds the indexes from the data file when a snapshot failed to load or
+     * they do not agree with the records. This also covers databases created
+     * before the name dictionary existed, which only have the old hash-keyed
+     * {@code _name.idx}, and a data file just upgraded from the original layout.
+     */
+    private void rebuildIndexesIfStale(boolean upgraded) {
+        try {
+            if (!upgraded && indexesConsistent()) return;
+            rebuildIndexes();
+            Files.deleteIfExists(Paths.get(dataFilePath.replace(".dat", "_name.idx")));
+        } catch (IOException e) {
+            throw new RuntimeException("Не удалось перестроить индексы", e);
+        }
+    }
+
+    /**
+     * Cheap check of the loaded indexes: every snapshot loaded cleanly, all indexes
+     * hold the same number of entries, every id entry points at a slot inside the
+     * data file, and a sample of them point at live records with that id.
+     */
+    private boolean indexesConsistent() throws IOException {
+        if (idIndex.isCorrupt() || nameIndex.isCorrupt() || gpaIndex.isCorrupt() || yearIndex.isCorrupt()) return false;
+        int count = idIndex.size();
+        if (nameIndex.size() != count || gpaIndex.size() != count || yearIndex.size() != count) return false;
+        RecordFormat format = store.format();
+        long length = store.length();
+        if (count == 0) return length <= format.dataStart() || Files.exists(Paths.get(indexPath));
+
+        long[] offsets = idIndex.offsets();
+        for (long offset : offsets) {
+            if (offset < format.dataStart() || offset + format.recordSize() > length
+                    || (offset - format.dataStart()) % format.recordSize() != 0) return false;
+        }
+        int step = Math.max(1, offsets.length / VERIFY_SAMPLE);
+        for (int i = 0; i < offsets.length; i += step) {
+            Student s = readRecord(offsets[i]);
+            if (s == null || idIndex.findOffset(s.getStudentId()) != offsets[i]) return false;
+        }
         return true;
     }
 
-    public int deleteStudentsByField(String field, Object value) throws IOException {
-        List<Integer> idsToDelete = new ArrayList<>();
-        dataFile.seek(0);
-        while (dataFile.getFilePointer() < dataFile.length()) {
-            long pos = dataFile.getFilePointer();
-            Student s = Student.readFrom(dataFile);
-            if (matches(s, field, value)) {
-                idsToDelete.add(s.getStudentId());
+    public boolean addStudent(Student student) throws IOException {
+        long started = startTimer();
+        lockWrite();
+        try {
+            if (idIndex.contains(student.getStudentId())) {
+                return false;
             }
+            long offset = freeSlots.isEmpty() ? store.length() : freeSlots.poll();
+            writeRecord(offset, student);
+
+            idIndex.addEntry(student.getStudentId(), offset);
+            nameIndex.addEntry(student.getName(), offset);
+            gpaIndex.addEntry(encodeGpa(student.getGpa()), offset);
+            yearIndex.addEntry(student.getEnrollmentYear(), offset);
+            recordChange(ChangeEvent.Type.ADD, null, student);
+            return true;
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.ADD, started);
+            unlockWrite();
         }
-        int count = 0;
-        for (int id : idsToDelete) {
-            if (deleteStudentById(id)) count++;
+    }
+
+    /**
+     * Appends many students at once. Records are written in large batches and the
+     * indexes are built once at the end instead of per record; students whose id
+     * already exists (in the database or earlier in the input) are skipped. If the
+     * input fails partway, e.g. on a bad CSV line, the records already written are
+     * dropped again and nothing is added.
+     *
+     * @return the number of students added
+     */
+    public int addStudents(Iterable<Student> students) throws IOException {
+        long started = startTimer();
+        lockWrite();
+        try {
+            IntLongHashMap seen = new IntLongHashMap();
+            List<Student> batch = new ArrayList<>(BULK_BATCH_SIZE);
+            List<Student> added = changeFeed == null ? null : new ArrayList<>();
+            int[] ids = new int[BULK_BATCH_SIZE];
+            long[] offsets = new long[BULK_BATCH_SIZE];
+            String[] names = new String[BULK_BATCH_SIZE];
+            long[] gpaKeys = new long[BULK_BATCH_SIZE];
+            long[] yearKeys = new long[BULK_BATCH_SIZE];
+            int count = 0;
+            long startLength = store.length();
+            long batchOffset = startLength;
+            long offset = batchOffset;
+
+            try {
+                for (Student student : students) {
+                    int id = student.getStudentId();
+                    if (idIndex.contains(id) || seen.containsKey(id)) continue;
+                    seen.put(id, offset);
+                    if (count == ids.length) {
+                        int capacity = count * 2;
+                        ids = Arrays.copyOf(ids, capacity);
+                        offsets = Arrays.copyOf(offsets, capacity);
+                        names = Arrays.copyOf(names, capacity);
+                        gpaKeys = Arrays.copyOf(gpaKeys, capacity);
+                        yearKeys = Arrays.copyOf(yearKeys, capacity);
+                    }
+                    ids[count] = id;
+                    offsets[count] = offset;
+                    names[count] = student.getName();
+                    gpaKeys[count] = encodeGpa(student.getGpa());
+                    yearKeys[count] = student.getEnrollmentYear();
+                    count++;
+                    offset += store.format().recordSize();
+
+                    batch.add(student);
+                    if (added != null) added.add(student);
+                    if (batch.size() == BULK_BATCH_SIZE) {
+                        writeRecords(batchOffset, batch);
+                        batchOffset = offset;
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    writeRecords(batchOffset, batch);
+                }
+            } catch (Throwable e) {
+                try {
+                    store.truncate(startLength);
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+            if (count == 0) return 0;
+
+            idIndex.addEntries(ids, offsets, count);
+            nameIndex.addEntries(names, offsets, count);
+            gpaIndex.addEntries(gpaKeys, offsets, count);
+            yearIndex.addEntries(yearKeys, offsets, count);
+            // only now are the records visible, so only now may the feed announce them
+            if (added != null) {
+                for (Student student : added) {
+                    recordChange(ChangeEvent.Type.ADD, null, student);
+                }
+            }
+            return count;
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.ADD_BULK, started);
+            unlockWrite();
         }
-        return count;
     }
 
-    private boolean matches(Student s, String field, Object value) {
-        switch (field) {
-            case "name": return s.getName().equals(value);
-            case "gpa": return Math.abs(s.getGpa() - (Double) value) < 1e-6;
-            case "enrollmentYear": return s.getEnrollmentYear() == (Integer) value;
-            default: return false;
+    /**
+     * Bulk-loads a CSV file of {@code id,name,gpa,year} lines through
+     * {@link #addStudents}. A header line is skipped; names may contain commas.
+     */
+    public int importCsv(String csvPath) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(csvPath))) {
+            Iterator<Student> it = reader.lines()
+                    .map(String::trim)
+                    .filter(line -> !line.isEmpty() && Character.isDigit(line.charAt(0)))
+                    .map(StudentDatabase::parseCsvLine)
+                    .iterator();
+            return addStudents(() -> it);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static Student parseCsvLine(String line) {
+        int first = line.indexOf(',');
+        int last = line.lastIndexOf(',');
+        int middle = line.lastIndexOf(',', last - 1);
+        if (first < 0 || middle <= first) throw new IllegalArgumentException("Bad CSV line: " + line);
+        return new Student(
+                Integer.parseInt(line.substring(0, first).trim()),
+                line.substring(first + 1, middle).trim(),
+                Double.parseDouble(line.substring(middle + 1, last).trim()),
+                Integer.parseInt(line.substring(last + 1).trim()));
+    }
+
+    public boolean deleteStudentById(int studentId) throws IOException {
+        long started = startTimer();
+        lockWrite();
+        try {
+            long offset = idIndex.findOffset(studentId);
+            if (offset == -1) return false;
+
+            Student s = readRecord(offset);
+            deleteRecord(offset);
+            cache.invalidate(studentId);
+
+            idIndex.removeEntry(studentId);
+            nameIndex.removeEntry(s.getName(), offset);
+            gpaIndex.removeEntry(encodeGpa(s.getGpa()), offset);
+            yearIndex.removeEntry(s.getEnrollmentYear(), offset);
+            freeSlots.add(offset);
+            recordChange(ChangeEvent.Type.DELETE, s, null);
+            return true;
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.DELETE, started);
+            unlockWrite();
+        }
+    }
+
+    /**
+     * Deletes every student matching the field value. Victims are found through the
+     * secondary index and all index removals are journaled as one batch.
+     */
+    public int deleteStudentsByField(String field, Object value) throws IOException {
+        long started = startTimer();
+        lockWrite();
+        try {
+            if (!field.equals("name") && !field.equals("gpa") && !field.equals("enrollmentYear")) return 0;
+            List<Student> victims = findStudentsByField(field, value);
+            int count = victims.size();
+            if (count == 0) return 0;
+
+            int[] ids = new int[count];
+            long[] offsets = new long[count];
+            String[] names = new String[count];
+            long[] gpaKeys = new long[count];
+            long[] yearKeys = new long[count];
+            for (int i = 0; i < count; i++) {
+                Student s = victims.get(i);
+                ids[i] = s.getStudentId();
+                offsets[i] = idIndex.findOffset(ids[i]);
+                names[i] = s.getName();
+                gpaKeys[i] = encodeGpa(s.getGpa());
+                yearKeys[i] = s.getEnrollmentYear();
+                deleteRecord(offsets[i]);
+                cache.invalidate(ids[i]);
+                freeSlots.add(offsets[i]);
+                recordChange(ChangeEvent.Type.DELETE, s, null);
+            }
+            idIndex.removeEntries(ids, count);
+            nameIndex.removeEntries(names, offsets, count);
+            gpaIndex.removeEntries(gpaKeys, offsets, count);
+            yearIndex.removeEntries(yearKeys, offsets, count);
+            return count;
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.DELETE_BY_FIELD, started);
+            unlockWrite();
         }
     }
 
     public Student findStudentById(int studentId) throws IOException {
-        long offset = idIndex.findOffset(studentId);
-        if (offset == -1) return null;
-        dataFile.seek(offset);
-        return Student.readFrom(dataFile);
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            Student cached = cache.get(studentId);
+            if (cached != null) return cached;
+            long offset = idIndex.findOffset(studentId);
+            if (offset == -1) return null;
+            Student s = readRecord(offset);
+            cache.put(s);
+            return s;
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.FIND_BY_ID, started);
+            lock.readLock().unlock();
+        }
     }
 
     public List<Student> findStudentsByField(String field, Object value) throws IOException {
-        switch (field) {
-            case "name": return findStudentsByName((String) value);
-            case "gpa": return findStudentsByGpa((Double) value);
-            case "enrollmentYear": return findStudentsByYear((Integer) value);
-            default: throw new IllegalArgumentException("Unknown field: " + field);
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            switch (field) {
+                case "name": return findStudentsByName((String) value);
+                case "gpa": return findStudentsByGpa((Double) value);
+                case "enrollmentYear": return findStudentsByYear((Integer) value);
+                default: throw new IllegalArgumentException("Unknown field: " + field);
+            }
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.FIND_BY_FIELD, started);
+            lock.readLock().unlock();
         }
     }
 
     private List<Student> findStudentsByName(String name) throws IOException {
-        return readStudentsByOffset(nameIndex.getOffsets(encodeName(name)), name, null, null);
+        return readStudentsByOffset(nameIndex.getOffsets(name), null, null, null);
+    }
+
+    public List<Student> findStudentsByNameIgnoreCase(String name) throws IOException {
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            return readStudentsByOffset(nameIndex.getOffsetsIgnoreCase(name), null, null, null);
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.FIND_BY_NAME, started);
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Case-insensitive prefix search in name order, returning at most {@code limit} students. */
+    public List<Student> findStudentsByNamePrefix(String prefix, int limit) throws IOException {
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            return readStudentsByOffset(nameIndex.getOffsetsByPrefix(prefix, limit), null, null, null);
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.FIND_BY_NAME, started);
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Student> findStudentsByNamePrefix(String prefix) throws IOException {
+        return findStudentsByNamePrefix(prefix, Integer.MAX_VALUE);
     }
 
     private List<Student> findStudentsByGpa(double gpa) throws IOException {
@@ -119,84 +642,991 @@ public class StudentDatabase {
         return readStudentsByOffset(yearIndex.getOffsets(year), null, null, year);
     }
 
+    public List<Student> findStudentsByGpaRange(double minGpa, double maxGpa) throws IOException {
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            List<Student> results = new ArrayList<>();
+            for (Student s : readStudentsByOffset(gpaIndex.getOffsetsInRange(encodeGpa(minGpa), encodeGpa(maxGpa)), null, null, null)) {
+                if (s.getGpa() >= minGpa && s.getGpa() <= maxGpa) results.add(s);
+            }
+            return results;
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.RANGE_QUERY, started);
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Student> findStudentsByYearRange(int fromYear, int toYear) throws IOException {
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            return readStudentsByOffset(yearIndex.getOffsetsInRange(fromYear, toYear), null, null, null);
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.RANGE_QUERY, started);
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<Student> findTopStudentsByGpa(int limit) throws IOException {
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            if (limit <= 0) return new ArrayList<>();
+            List<Student> results = readStudentsByOffset(gpaIndex.getOffsetsDescending(limit), null, null, null);
+            results.sort(Comparator.comparingDouble(Student::getGpa).reversed());
+            return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.TOP_N, started);
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Runs a query. The planner answers the condition from the indexes when it is
+     * selective and reads only the candidate records, in file order; otherwise the
+     * data file is scanned sequentially. Without an order the read stops once the
+     * limit is reached; with one, only the best {@code limit} records are kept.
+     */
+    public List<Student> query(Query query) throws IOException {
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            return select(query, newPlanner());
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.QUERY, started);
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts the students matching {@code condition} (null counts all). With
+     * {@link DatabaseOptions#bitmapIndexes} a condition built only from GPA and
+     * year parts is answered from the bitmaps alone; anything else runs as a query.
+     */
+    public long count(Condition condition) throws IOException {
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            if (condition == null) return idIndex.size();
+            QueryPlanner planner = newPlanner();
+            SlotBitmap bitmap = planner.bitmap(condition);
+            return bitmap != null ? bitmap.cardinality() : select(Query.where(condition), planner).size();
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.COUNT, started);
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Counts the students matching {@code condition} (null counts all) per enrollment year, like {@link #count}. */
+    public SortedMap<Integer, Long> countByYear(Condition condition) throws IOException {
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            SortedMap<Integer, Long> counts = new TreeMap<>();
+            QueryPlanner planner = newPlanner();
+            SlotBitmap filter = condition == null ? null : planner.bitmap(condition);
+            SortedMap<Long, SlotBitmap> years = yearIndex.bitmaps();
+            if (years != null && (condition == null || filter != null)) {
+                for (Map.Entry<Long, SlotBitmap> year : years.entrySet()) {
+                    long count = filter == null ? year.getValue().cardinality() : filter.andCardinality(year.getValue());
+                    if (count > 0) counts.put(year.getKey().intValue(), count);
+                }
+                return counts;
+            }
+            for (Student s : select(condition == null ? Query.all() : Query.where(condition), planner)) {
+                counts.merge(s.getEnrollmentYear(), 1L, Long::sum);
+            }
+            return counts;
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.COUNT, started);
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<Student> select(Query query, QueryPlanner planner) throws IOException {
+        QueryPlanner.Plan plan = planner.plan(query.condition());
+        Condition condition = query.condition();
+        QueryResults results = new QueryResults(query.order(), query.limit());
+        if (plan.offsets != null) {
+            for (long offset : plan.offsets) {
+                Student s = readRecord(offset);
+                if (s != null && condition.test(s) && results.add(s)) break;
+            }
+            return results.list();
+        }
+        int recordSize = store.format().recordSize();
+        long slots = offsetToSlot(store.length());
+        ByteBuffer buf = ByteBuffer.allocate(REBUILD_CHUNK_SLOTS * recordSize);
+        for (long first = 0; first < slots; first += REBUILD_CHUNK_SLOTS) {
+            int n = (int) Math.min(REBUILD_CHUNK_SLOTS, slots - first);
+            buf.clear().limit(n * recordSize);
+            store.readSlots(slotToOffset(first), buf);
+            countDataRead(buf.limit());
+            for (int i = 0; i < n; i++) {
+                Student s = store.decode(buf, i * recordSize);
+                if (s != null && (condition == null || condition.test(s)) && results.add(s)) return results.list();
+            }
+        }
+        return results.list();
+    }
+
+    /** Describes the plan {@link #query} would use, with the estimated matches of each part. */
+    public String explain(Query query) {
+        lock.readLock().lock();
+        try {
+            return newPlanner().plan(query.condition()).description;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private QueryPlanner newPlanner() {
+        return new QueryPlanner(idIndex, nameIndex, gpaIndex, yearIndex, store.format());
+    }
+
+    /** Collects matches for {@link #query}, keeping the order stable so ties stay in file order. */
+    private static final class QueryResults {
+        private final Comparator<Student> order;
+        private final int limit;
+        private final List<Student> list = new ArrayList<>();
+
+        QueryResults(Comparator<Student> order, int limit) {
+            this.order = order;
+            this.limit = limit;
+        }
+
+        /** Adds a match, returning true once no later match can change the result. */
+        boolean add(Student s) {
+            list.add(s);
+            if (limit == 0) return false;
+            if (order == null) return list.size() >= limit;
+            if (list.size() >= 2 * limit) trim();
+            return false;
+        }
+
+        private void trim() {
+            list.sort(order);
+            list.subList(limit, list.size()).clear();
+        }
+
+        List<Student> list() {
+            if (order != null) list.sort(order);
+            if (limit > 0 && list.size() > limit) list.subList(limit, list.size()).clear();
+            return list;
+        }
+    }
+
     private List<Student> readStudentsByOffset(List<Long> offsets, String name, Double gpa, Integer year) throws IOException {
         List<Student> results = new ArrayList<>();
         for (long offset : offsets) {
-            dataFile.seek(offset);
-            Student s = Student.readFrom(dataFile);
+            Student s = readRecord(offset);
             boolean match = true;
             if (name != null) match = s.getName().equals(name);
-            if (gpa != null) match = Math.abs(s.getGpa() - gpa) < 1e-6;
-            if (year != null) match = s.getEnrollmentYear() == year;
+            if (gpa != null) match &= Math.abs(s.getGpa() - gpa) < 1e-6;
+            if (year != null) match &= s.getEnrollmentYear() == year;
             if (match) results.add(s);
         }
         return results;
     }
 
+    /** Replaces a student in place; goes through the redo log, so the record and its index entries change together. */
     public void updateStudent(Student updated) throws IOException {
-        long offset = idIndex.findOffset(updated.getStudentId());
-        if (offset == -1) throw new IllegalArgumentException("Student not found");
+        commit(Collections.singletonList(new Transaction.Op(Transaction.Kind.UPDATE, updated.getStudentId(), updated)),
+                DatabaseMetrics.Operation.UPDATE);
+    }
+
+    /** Starts a batch of changes applied atomically on {@link Transaction#commit()}. */
+    public Transaction begin() {
+        return new Transaction(this);
+    }
+
+    void commit(List<Transaction.Op> ops) throws IOException {
+        commit(ops, DatabaseMetrics.Operation.COMMIT);
+    }
+
+    /**
+     * Resolves the operations to one redo entry per changed slot, logs them with a
+     * single flush and applies them. Unless the database is {@link Durability#ASYNC}
+     * the log is forced before the data files change and the data files before the
+     * log is emptied, so the whole batch costs two forces however large it is.
+     */
+    private void commit(List<Transaction.Op> ops, DatabaseMetrics.Operation operation) throws IOException {
+        long started = startTimer();
+        lockWrite();
+        List<Long> allocated = new ArrayList<>();
+        boolean logged = false;
+        try {
+            List<RedoLog.Entry> entries = planCommit(ops, allocated);
+            if (entries.isEmpty()) return;
+            boolean durable = options.getDurability() != Durability.ASYNC;
+            redoLog.commit(entries, durable);
+            logged = true;
+            applyRedo(entries, false);
+            for (RedoLog.Entry entry : entries) {
+                if (entry.updated == null) freeSlots.add(entry.offset);
+            }
+            // the events must be in the file before the force, as the log is emptied after it
+            if (changeFeed != null) changeFeed.publish();
+            if (durable) forceFiles();
+            redoLog.truncate();
+            writesPending = false;
+        } finally {
+            if (!logged) {
+                for (long offset : allocated) {
+                    if (offset < store.length()) freeSlots.addFirst(offset);
+                }
+            }
+            stopTimer(operation, started);
+            unlockWrite();
+        }
+    }
+
+    private List<RedoLog.Entry> planCommit(List<Transaction.Op> ops, List<Long> allocated) throws IOException {
+        Map<Integer, Student> result = new LinkedHashMap<>();
+        for (Transaction.Op op : ops) {
+            Integer id = op.studentId;
+            boolean exists = result.containsKey(id) ? result.get(id) != null : idIndex.contains(id);
+            switch (op.kind) {
+                case ADD:
+                    if (exists) throw new IllegalArgumentException("Student already exists: " + id);
+                    result.put(id, op.student);
+                    break;
+                case UPDATE:
+                    if (!exists) throw new IllegalArgumentException("Student not found");
+                    result.put(id, op.student);
+                    break;
+                case DELETE:
+                    if (!exists) throw new IllegalArgumentException("Student not found");
+                    result.put(id, null);
+                    break;
+            }
+        }
+
+        List<RedoLog.Entry> entries = new ArrayList<>(result.size());
+        long end = store.length();
+        for (Map.Entry<Integer, Student> change : result.entrySet()) {
+            long offset = idIndex.findOffset(change.getKey());
+            if (offset != -1) {
+                entries.add(new RedoLog.Entry(offset, change.getValue(), readRecord(offset)));
+            } else if (change.getValue() != null) {
+                if (freeSlots.isEmpty()) {
+                    offset = end;
+                    end += store.format().recordSize();
+                } else {
+                    offset = freeSlots.poll();
+                }
+                allocated.add(offset);
+                entries.add(new RedoLog.Entry(offset, change.getValue(), null));
+            }
+        }
+        return entries;
+    }
 
-        dataFile.seek(offset);
-        Student old = Student.readFrom(dataFile);
+    /**
+     * Writes redo entries to the data file and indexes. Each entry names the slot
+     * and its old and new contents, so applying it again after a crash is harmless;
+     * on replay the new name entries are removed first, since the name index keeps
+     * duplicates.
+     */
+    private void applyRedo(List<RedoLog.Entry> entries, boolean replaying) throws IOException {
+        int n = entries.size();
+        int[] removedIds = new int[n];
+        int[] addedIds = new int[n];
+        long[] addedIdOffsets = new long[n];
+        String[] oldNames = new String[replaying ? 2 * n : n];
+        long[] oldGpas = new long[n];
+        long[] oldYears = new long[n];
+        long[] oldOffsets = new long[replaying ? 2 * n : n];
+        String[] newNames = new String[n];
+        long[] newGpas = new long[n];
+        long[] newYears = new long[n];
+        long[] newOffsets = new long[n];
+        int removedCount = 0, addedCount = 0, oldCount = 0, newCount = 0;
 
-        nameIndex.removeEntry(encodeName(old.getName()), offset);
-        gpaIndex.removeEntry(encodeGpa(old.getGpa()), offset);
-        yearIndex.removeEntry(old.getEnrollmentYear(), offset);
+        for (RedoLog.Entry entry : entries) {
+            if (entry.old != null) {
+                oldNames[oldCount] = entry.old.getName();
+                oldGpas[oldCount] = encodeGpa(entry.old.getGpa());
+                oldYears[oldCount] = entry.old.getEnrollmentYear();
+                oldOffsets[oldCount++] = entry.offset;
+            }
+            if (entry.updated == null) {
+                deleteRecord(entry.offset);
+                cache.invalidate(entry.old.getStudentId());
+                removedIds[removedCount++] = entry.old.getStudentId();
+                continue;
+            }
+            writeRecord(entry.offset, entry.updated);
+            cache.invalidate(entry.updated.getStudentId());
+            if (entry.old == null) {
+                addedIds[addedCount] = entry.updated.getStudentId();
+                addedIdOffsets[addedCount++] = entry.offset;
+            }
+            newNames[newCount] = entry.updated.getName();
+            newGpas[newCount] = encodeGpa(entry.updated.getGpa());
+            newYears[newCount] = entry.updated.getEnrollmentYear();
+            newOffsets[newCount++] = entry.offset;
+        }
+        for (RedoLog.Entry entry : entries) {
+            recordChange(entry.old == null ? ChangeEvent.Type.ADD : entry.updated == null ? ChangeEvent.Type.DELETE : ChangeEvent.Type.UPDATE,
+                    entry.old, entry.updated);
+        }
 
-        dataFile.seek(offset);
-        updated.writeTo(dataFile);
+        if (removedCount > 0) idIndex.removeEntries(removedIds, removedCount);
+        int oldNameCount = oldCount;
+        if (replaying) {
+            System.arraycopy(newNames, 0, oldNames, oldCount, newCount);
+            System.arraycopy(newOffsets, 0, oldOffsets, oldCount, newCount);
+            oldNameCount += newCount;
+        }
+        if (oldNameCount > 0) nameIndex.removeEntries(oldNames, oldOffsets, oldNameCount);
+        if (oldCount > 0) {
+            gpaIndex.removeEntries(oldGpas, oldOffsets, oldCount);
+            yearIndex.removeEntries(oldYears, oldOffsets, oldCount);
+        }
+        if (addedCount > 0) idIndex.putEntries(addedIds, addedIdOffsets, addedCount);
+        if (newCount > 0) {
+            nameIndex.putEntries(newNames, newOffsets, newCount);
+            gpaIndex.putEntries(newGpas, newOffsets, newCount);
+            yearIndex.putEntries(newYears, newOffsets, newCount);
+        }
+    }
 
-        nameIndex.addEntry(encodeName(updated.getName()), offset);
-        gpaIndex.addEntry(encodeGpa(updated.getGpa()), offset);
-        yearIndex.addEntry(updated.getEnrollmentYear(), offset);
+    /** Re-applies transactions that were committed to the redo log but may not have reached the data files. */
+    private void replayRedoLog() {
+        try {
+            List<List<RedoLog.Entry>> committed = redoLog.replay();
+            for (List<RedoLog.Entry> entries : committed) {
+                applyRedo(entries, true);
+            }
+            if (changeFeed != null) changeFeed.publish();
+            if (!committed.isEmpty() && options.getDurability() != Durability.ASYNC) forceFiles();
+            redoLog.truncate();
+            writesPending = false;
+        } catch (IOException e) {
+            throw new RuntimeException("Не удалось применить журнал транзакций", e);
+        }
     }
 
     public void clear() throws IOException {
-        dataFile.setLength(0);
-        idIndex = new StudentIndex(indexPath);
-        nameIndex.clear();
-        gpaIndex.clear();
-        yearIndex.clear();
+        maintenanceLock.lock();
+        lockWrite();
+        try {
+            store.clear();
+            cache.clear();
+            idIndex.clear();
+            nameIndex.clear();
+            gpaIndex.clear();
+            yearIndex.clear();
+            freeSlots.clear();
+            lastBackup = null;
+            writesPending = true;
+            recordChange(ChangeEvent.Type.RESET, null, null);
+        } finally {
+            unlockWrite();
+            maintenanceLock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the live records into a fresh data file and remaps all index offsets
+     * to it. Writers are blocked for the whole run, but reads keep being served
+     * from the open store and indexes until they are swapped at the end.
+     */
+    public void compact() throws IOException {
+        long started = startTimer();
+        maintenanceLock.lock();
+        writerLock.lock();
+        try {
+            Path compactPath = Paths.get(dataFilePath + ".compact");
+            long[] oldOffsets = idIndex.offsets();
+            Arrays.sort(oldOffsets);
+            long[] newOffsets = new long[oldOffsets.length];
+            Files.deleteIfExists(compactPath);
+            Path compactOverflow = Paths.get(compactPath + ".ovf");
+            Files.deleteIfExists(compactOverflow);
+            try (RecordStore dst = new FileRecordStore(compactPath.toString())) {
+                RecordFormat format = dst.format();
+                for (int i = 0; i < oldOffsets.length; i++) {
+                    newOffsets[i] = format.dataStart() + (long) i * format.recordSize();
+                    dst.write(newOffsets[i], readRecord(oldOffsets[i]));
+                }
+                countDataWritten((long) oldOffsets.length * format.recordSize());
+                dst.force();
+            }
+
+            lock.writeLock().lock();
+            try {
+                store.close();
+                Files.move(compactPath, Paths.get(dataFilePath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (Files.exists(compactOverflow)) {
+                    Files.move(compactOverflow, Paths.get(overflowPath()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    Files.deleteIfExists(Paths.get(overflowPath()));
+                }
+                store = openStore();
+                idIndex.remap(oldOffsets, newOffsets);
+                nameIndex.remap(oldOffsets, newOffsets);
+                gpaIndex.remap(oldOffsets, newOffsets);
+                yearIndex.remap(oldOffsets, newOffsets);
+                attachBitmaps();
+                freeSlots.clear();
+                lastBackup = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.COMPACT, started);
+            writerLock.unlock();
+            maintenanceLock.unlock();
+        }
     }
 
     public void close() throws IOException {
-        dataFile.close();
-        idIndex.saveIndex();
-        nameIndex.saveIndex();
-        gpaIndex.saveIndex();
-        yearIndex.saveIndex();
+        List<ChangeSubscription> open;
+        synchronized (subscriptions) {
+            open = new ArrayList<>(subscriptions);
+        }
+        for (ChangeSubscription subscription : open) {
+            subscription.close();
+        }
+        lockWrite();
+        try {
+            if (options.getDurability() != Durability.ASYNC) forceFiles();
+            writesPending = false;
+            closeFiles();
+            if (changeFeed != null) changeFeed.close();
+            if (metricsName != null) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+                metricsName = null;
+            }
+        } catch (JMException e) {
+            e.printStackTrace();
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        redoLog.close();
+        store.close();
+        idIndex.close();
+        nameIndex.close();
+        gpaIndex.close();
+        yearIndex.close();
     }
 
     public void backup(String backupName) throws IOException {
-        Files.copy(Paths.get(dataFilePath), Paths.get(backupName + ".dat"), StandardCopyOption.REPLACE_EXISTING);
-        Files.copy(Paths.get(indexPath), Paths.get(backupName + ".idx"), StandardCopyOption.REPLACE_EXISTING);
-        Files.copy(Paths.get(dataFilePath.replace(".dat", "_name.idx")), Paths.get(backupName + "_name.idx"), StandardCopyOption.REPLACE_EXISTING);
-        Files.copy(Paths.get(dataFilePath.replace(".dat", "_gpa.idx")), Paths.get(backupName + "_gpa.idx"), StandardCopyOption.REPLACE_EXISTING);
-        Files.copy(Paths.get(dataFilePath.replace(".dat", "_year.idx")), Paths.get(backupName + "_year.idx"), StandardCopyOption.REPLACE_EXISTING);
+        backup(backupName, null);
+    }
+
+    /**
+     * Takes a full hot backup under {@code backupName}: a {@code .manifest} with a
+     * checksum per page and a {@code .pages} file holding the pages. The backup is
+     * the state at the moment it starts; writers are held only while that moment is
+     * pinned and keep running during the copy. Indexes are not copied, they are
+     * rebuilt from the records on restore. {@code progress}, if given, receives the
+     * fraction of pages done; cancelling it stops with an {@link InterruptedIOException}
+     * and removes the partial backup.
+     */
+    public void backup(String backupName, ProgressListener progress) throws IOException {
+        writeBackup(backupName, null, progress);
+    }
+
+    public void backupIncremental(String backupName, String baseName) throws IOException {
+        backupIncremental(backupName, baseName, null);
+    }
+
+    /**
+     * Like {@link #backup(String, ProgressListener)}, but stores only the pages that
+     * differ from {@code baseName}, which may itself be incremental. If the base is
+     * the last backup taken by this instance, pages not written since are skipped
+     * without being read; otherwise each page is compared by checksum.
+     */
+    public void backupIncremental(String backupName, String baseName, ProgressListener progress) throws IOException {
+        if (backupName.equals(baseName)) throw new IllegalArgumentException("Backup cannot be its own base");
+        writeBackup(backupName, baseName, progress);
+    }
+
+    private void writeBackup(String backupName, String baseName, ProgressListener progress) throws IOException {
+        BackupManifest base = baseName == null ? null : BackupManifest.read(baseName);
+        long started = startTimer();
+        maintenanceLock.lock();
+        try {
+            BackupSnapshot snap;
+            BitSet changed;
+            boolean tracked;
+            lockWrite();
+            try {
+                snap = new BackupSnapshot(Paths.get(dataFilePath), store.length(), Paths.get(overflowPath()));
+                tracked = baseName != null && baseName.equals(lastBackup);
+                changed = dirtyPages;
+                dirtyPages = new BitSet();
+                snapshot = snap;
+            } finally {
+                unlockWrite();
+            }
+
+            boolean done = false;
+            try {
+                copyPages(snap, backupName, baseName, base, tracked ? changed : null, progress).write(backupName);
+                done = true;
+            } finally {
+                lockWrite();
+                try {
+                    snapshot = null;
+                    if (done) {
+                        lastBackup = backupName;
+                    } else {
+                        dirtyPages.or(changed);
+                    }
+                } finally {
+                    unlockWrite();
+                }
+                snap.close();
+                if (!done) {
+                    Files.deleteIfExists(BackupManifest.pagesPath(backupName));
+                    Files.deleteIfExists(BackupManifest.manifestPath(backupName));
+                }
+            }
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.BACKUP, started);
+            maintenanceLock.unlock();
+        }
+    }
+
+    /**
+     * Copies the snapshot's data pages, then its overflow pages, into the backup's
+     * page file. With a base, pages matching it are left out; {@code changed}, if
+     * known, lists the data pages written since the base and lets the rest be skipped.
+     */
+    private BackupManifest copyPages(BackupSnapshot snap, String backupName, String baseName, BackupManifest base,
+                                     BitSet changed, ProgressListener progress) throws IOException {
+        BackupManifest.Section data = new BackupManifest.Section(snap.dataLength());
+        BackupManifest.Section overflow = new BackupManifest.Section(snap.overflowLength());
+        int total = data.pageCount() + overflow.pageCount();
+        try (FileChannel out = FileChannel.open(BackupManifest.pagesPath(backupName), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long written = 0;
+            for (int i = 0; i < total; i++) {
+                if (progress != null && progress.isCancelled()) throw new InterruptedIOException("Backup cancelled");
+                boolean isData = i < data.pageCount();
+                int page = isData ? i : i - data.pageCount();
+                BackupManifest.Section section = isData ? data : overflow;
+                BackupManifest.Section baseSection = base == null ? null : isData ? base.data : base.overflow;
+                boolean inBase = baseSection != null && page < baseSection.pageCount()
+                        && baseSection.pageLength(page) == section.pageLength(page);
+
+                if (inBase && isData && changed != null && !changed.get(page)) {
+                    lock.readLock().lock();
+                    try {
+                        snap.skipDataPage(page);
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                    section.checksums[page] = baseSection.checksums[page];
+                    section.locations[page] = -1;
+                } else {
+                    byte[] bytes;
+                    if (isData) {
+                        lock.readLock().lock();
+                        try {
+                            bytes = snap.readDataPage(page);
+                            countDataRead(bytes.length);
+                        } finally {
+                            lock.readLock().unlock();
+                        }
+                    } else {
+                        bytes = snap.readOverflowPage(page);
+                    }
+                    int checksum = BackupManifest.checksum(bytes, bytes.length);
+                    section.checksums[page] = checksum;
+                    if (inBase && checksum == baseSection.checksums[page]) {
+                        section.locations[page] = -1;
+                    } else {
+                        section.locations[page] = written;
+                        ByteBuffer buf = ByteBuffer.wrap(bytes);
+                        while (buf.hasRemaining()) {
+                            out.write(buf, written + buf.position());
+                        }
+                        written += bytes.length;
+                    }
+                }
+                if (progress != null) progress.progress((double) (i + 1) / total);
+            }
+            out.force(true);
+        }
+        return new BackupManifest(baseName, data, overflow);
+    }
+
+    /** Copies an optional file, removing the target when the source does not exist. */
+    private static void copyIfExists(Path source, Path target) throws IOException {
+        if (Files.exists(source)) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(target);
+        }
     }
 
     public void restoreFromBackup(String backupName) throws IOException {
-        close();
-        Files.copy(Paths.get(backupName + ".dat"), Paths.get(dataFilePath), StandardCopyOption.REPLACE_EXISTING);
-        Files.copy(Paths.get(backupName + ".idx"), Paths.get(indexPath), StandardCopyOption.REPLACE_EXISTING);
-        Files.copy(Paths.get(backupName + "_name.idx"), Paths.get(dataFilePath.replace(".dat", "_name.idx")), StandardCopyOption.REPLACE_EXISTING);
-        Files.copy(Paths.get(backupName + "_gpa.idx"), Paths.get(dataFilePath.replace(".dat", "_gpa.idx")), StandardCopyOption.REPLACE_EXISTING);
-        Files.copy(Paths.get(backupName + "_year.idx"), Paths.get(dataFilePath.replace(".dat", "_year.idx")), StandardCopyOption.REPLACE_EXISTING);
+        restoreFromBackup(backupName, null);
+    }
+
+    /**
+     * Restores a backup taken by {@link #backup} or {@link #backupIncremental}. Every
+     * page is checked against its checksum while the files are reassembled next to
+     * the live ones, so a damaged backup fails before anything is replaced; the
+     * indexes are then rebuilt from the restored records. Backups in the older
+     * whole-file layout are copied back as before.
+     */
+    public void restoreFromBackup(String backupName, ProgressListener progress) throws IOException {
+        if (!BackupManifest.exists(backupName)) {
+            restoreFileBackup(backupName);
+            return;
+        }
+        Path restoredData = Paths.get(dataFilePath + ".restore");
+        Path restoredOverflow = Paths.get(restoredData + ".ovf");
+        long started = startTimer();
+        maintenanceLock.lock();
+        try {
+            try {
+                BackupManifest.restore(backupName, restoredData, restoredOverflow, progress);
+            } catch (IOException e) {
+                Files.deleteIfExists(restoredData);
+                Files.deleteIfExists(restoredOverflow);
+                throw e;
+            }
+
+            lockWrite();
+            try {
+                store.close();
+                Files.move(restoredData, Paths.get(dataFilePath), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                if (Files.exists(restoredOverflow)) {
+                    Files.move(restoredOverflow, Paths.get(overflowPath()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    Files.deleteIfExists(Paths.get(overflowPath()));
+                }
+                store = openStore();
+                cache.clear();
+                rebuildIndexes();
+                attachBitmaps();
+                loadFreeSlots();
+                lastBackup = null;
+                recordChange(ChangeEvent.Type.RESET, null, null);
+            } finally {
+                unlockWrite();
+            }
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.RESTORE, started);
+            maintenanceLock.unlock();
+        }
+    }
+
+    private void restoreFileBackup(String backupName) throws IOException {
+        long started = startTimer();
+        maintenanceLock.lock();
+        lockWrite();
+        try {
+            closeFiles();
+            Files.copy(Paths.get(backupName + ".dat"), Paths.get(dataFilePath), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(Paths.get(backupName + ".idx"), Paths.get(indexPath), StandardCopyOption.REPLACE_EXISTING);
+            copyIfExists(Paths.get(backupName + "_names.idx"), Paths.get(dataFilePath.replace(".dat", "_names.idx")));
+            Files.copy(Paths.get(backupName + "_gpa.idx"), Paths.get(dataFilePath.replace(".dat", "_gpa.idx")), StandardCopyOption.REPLACE_EXISTING);
+            Files.copy(Paths.get(backupName + "_year.idx"), Paths.get(dataFilePath.replace(".dat", "_year.idx")), StandardCopyOption.REPLACE_EXISTING);
+            copyIfExists(Paths.get(backupName + ".dat.ovf"), Paths.get(overflowPath()));
+
+            openIndexes();
+            boolean upgraded = upgradeOriginalLayout();
+            store = openStore();
+            cache.clear();
+            rebuildIndexesIfStale(upgraded);
+            attachBitmaps();
+            loadFreeSlots();
+            lastBackup = null;
+            recordChange(ChangeEvent.Type.RESET, null, null);
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.RESTORE, started);
+            unlockWrite();
+            maintenanceLock.unlock();
+        }
+    }
+
+    /**
+     * Rebuilds every index from the live records in the data file. Chunks of slots
+     * are read and decoded in parallel into per-slot arrays, then the four indexes
+     * are filled concurrently, each writing one snapshot.
+     */
+    private void rebuildIndexes() throws IOException {
+        idIndex.clear();
+        nameIndex.clear();
+        gpaIndex.clear();
+        yearIndex.clear();
+        int slots = (int) Math.max(offsetToSlot(store.length()), 0);
+        int[] slotIds = new int[slots];
+        String[] slotNames = new String[slots];
+        long[] slotGpas = new long[slots];
+        long[] slotYears = new long[slots];
+        int recordSize = store.format().recordSize();
+        try {
+            IntStream.range(0, (slots + REBUILD_CHUNK_SLOTS - 1) / REBUILD_CHUNK_SLOTS).parallel().forEach(chunk -> {
+                int first = chunk * REBUILD_CHUNK_SLOTS;
+                int n = Math.min(REBUILD_CHUNK_SLOTS, slots - first);
+                ByteBuffer buf = ByteBuffer.allocate(n * recordSize);
+                try {
+                    store.readSlots(slotToOffset(first), buf);
+                    countDataRead(buf.capacity());
+                    for (int i = 0; i < n; i++) {
+                        Student s = store.decode(buf, i * recordSize);
+                        if (s == null) continue;
+                        slotIds[first + i] = s.getStudentId();
+                        slotNames[first + i] = s.getName();
+                        slotGpas[first + i] = encodeGpa(s.getGpa());
+                        slotYears[first + i] = s.getEnrollmentYear();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        int count = 0;
+        long[] offsets = new long[slots];
+        for (int slot = 0; slot < slots; slot++) {
+            if (slotNames[slot] == null) continue;
+            slotIds[count] = slotIds[slot];
+            slotNames[count] = slotNames[slot];
+            slotGpas[count] = slotGpas[slot];
+            slotYears[count] = slotYears[slot];
+            offsets[count++] = slotToOffset(slot);
+        }
+        int live = count;
+        CompletableFuture.allOf(
+                CompletableFuture.runAsync(() -> idIndex.addEntries(slotIds, offsets, live)),
+                CompletableFuture.runAsync(() -> nameIndex.addEntries(slotNames, offsets, live)),
+                CompletableFuture.runAsync(() -> gpaIndex.addEntries(slotGpas, offsets, live)),
+                CompletableFuture.runAsync(() -> yearIndex.addEntries(slotYears, offsets, live))).join();
+    }
+
+    private long slotToOffset(long slot) {
+        RecordFormat format = store.format();
+        return format.dataStart() + slot * format.recordSize();
+    }
+
+    private long offsetToSlot(long offset) {
+        RecordFormat format = store.format();
+        return (offset - format.dataStart()) / format.recordSize();
+    }
+
+    /** Number of record slots in the data file, live or not. */
+    public long slotCount() throws IOException {
+        lock.readLock().lock();
+        try {
+            return offsetToSlot(store.length());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Slot numbers of all live records, ascending. Built from the id index, no records are read. */
+    public long[] liveSlots() {
+        lock.readLock().lock();
+        try {
+            long[] slots = idIndex.offsets();
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = offsetToSlot(slots[i]);
+            }
+            Arrays.sort(slots);
+            return slots;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Slot of the student's record, or -1 if there is no such student. */
+    public long slotOf(int studentId) {
+        lock.readLock().lock();
+        try {
+            long offset = idIndex.findOffset(studentId);
+            return offset == -1 ? -1 : offsetToSlot(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Reads one slot, returning null if it is deleted or past the end. */
+    public Student readSlot(long slot) throws IOException {
+        lock.readLock().lock();
+        try {
+            long offset = slotToOffset(slot);
+            if (slot < 0 || offset >= store.length()) return null;
+            return readRecord(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Live students in slots {@code [fromSlot, fromSlot + slotLimit)}, in slot order. */
+    public List<Student> scan(long fromSlot, int slotLimit) throws IOException {
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            List<Student> page = new ArrayList<>();
+            long end = Math.min(slotToOffset(fromSlot + slotLimit), store.length());
+            int recordSize = store.format().recordSize();
+            for (long offset = slotToOffset(Math.max(fromSlot, 0)); offset < end; offset += recordSize) {
+                Student s = readRecord(offset);
+                if (s != null) page.add(s);
+            }
+            return page;
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.SCAN, started);
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lazily streams all live students in slot order, reading one page of slots at
+     * a time. Each page is consistent on its own; changes made while the stream is
+     * being consumed may or may not be seen.
+     */
+    public Stream<Student> streamStudents() throws IOException {
+        long slots = slotCount();
+        return LongStream.range(0, (slots + SCAN_PAGE_SIZE - 1) / SCAN_PAGE_SIZE)
+                .mapToObj(page -> {
+                    try {
+                        return scan(page * SCAN_PAGE_SIZE, SCAN_PAGE_SIZE);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .flatMap(List::stream);
+    }
+
+    /**
+     * Count, sum, min, max and average of GPA over the live students matching
+     * {@code filter} ({@code null} for all), computed by a parallel scan of the
+     * data file that does not build {@link Student} objects.
+     */
+    public DoubleSummaryStatistics aggregateGpa(RecordFilter filter) throws IOException {
+        return aggregate(filter, false).getOrDefault(0, new DoubleSummaryStatistics());
+    }
 
-        dataFile = new RandomAccessFile(dataFilePath, "rw");
-        idIndex = new StudentIndex(indexPath);
-        nameIndex = new ValueIndex(dataFilePath.replace(".dat", "_name.idx"));
-        gpaIndex = new ValueIndex(dataFilePath.replace(".dat", "_gpa.idx"));
-        yearIndex = new ValueIndex(dataFilePath.replace(".dat", "_year.idx"));
+    /** Like {@link #aggregateGpa}, grouped by enrollment year in ascending year order. */
+    public SortedMap<Integer, DoubleSummaryStatistics> aggregateGpaByYear(RecordFilter filter) throws IOException {
+        return new TreeMap<>(aggregate(filter, true));
+    }
+
+    private Map<Integer, DoubleSummaryStatistics> aggregate(RecordFilter filter, boolean groupByYear) throws IOException {
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            long slots = Math.max(offsetToSlot(store.length()), 0);
+            Map<Integer, DoubleSummaryStatistics> result = ForkJoinPool.commonPool().invoke(new ParallelScan(store, filter, groupByYear, 0, slots));
+            countDataRead(slots * store.format().recordSize());
+            return result;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.AGGREGATE, started);
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Delivers the change feed to {@code listener} on a thread of its own, starting
+     * at the event numbered {@code fromSequence} (1 for the whole feed) and then
+     * following new changes as they are made. Requires {@link DatabaseOptions#changeFeed}.
+     * Pass {@link ChangeCheckpoint#load()}{@code + 1} to resume after a restart.
+     */
+    public ChangeSubscription subscribe(long fromSequence, Consumer<ChangeEvent> listener) {
+        if (changeFeed == null) throw new IllegalStateException("Change feed is not enabled");
+        ChangeSubscription subscription = new ChangeSubscription(changeFeed, new ChangeFeedReader(changeFeedPath, fromSequence), listener,
+                stopped -> {
+                    synchronized (subscriptions) {
+                        subscriptions.remove(stopped);
+                    }
+                });
+        synchronized (subscriptions) {
+            subscriptions.add(subscription);
+        }
+        subscription.start();
+        return subscription;
+    }
+
+    /** Sequence number of the last published change, 0 if none or the change feed is off. */
+    public long lastChangeSequence() {
+        return changeFeed == null ? 0 : changeFeed.lastSequence();
+    }
+
+    /** The change feed file, for a {@link ChangeFeedReader} in another process. */
+    public String getChangeFeedPath() {
+        return changeFeedPath;
+    }
+
+    /**
+     * Copies the live students, in slot order, into a {@link ColumnarSnapshot} for
+     * analytics. The copy is taken under the read lock, so it reflects exactly the
+     * changes up to {@link #lastChangeSequence()} and can be brought up to date
+     * later with {@link ColumnarSnapshot#refresh}.
+     */
+    public ColumnarSnapshot columnarSnapshot() throws IOException {
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            ColumnarSnapshot snapshot = changeFeed == null
+                    ? new ColumnarSnapshot(-1, 0, idIndex.size())
+                    : new ColumnarSnapshot(changeFeed.lastSequence(), changeFeed.lastOffset(), idIndex.size());
+            int recordSize = store.format().recordSize();
+            long slots = offsetToSlot(store.length());
+            ByteBuffer buf = ByteBuffer.allocate(REBUILD_CHUNK_SLOTS * recordSize);
+            for (long first = 0; first < slots; first += REBUILD_CHUNK_SLOTS) {
+                int n = (int) Math.min(REBUILD_CHUNK_SLOTS, slots - first);
+                buf.clear().limit(n * recordSize);
+                store.readSlots(slotToOffset(first), buf);
+                countDataRead(buf.limit());
+                for (int i = 0; i < n; i++) {
+                    Student s = store.decode(buf, i * recordSize);
+                    if (s != null) snapshot.append(s);
+                }
+            }
+            return snapshot;
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.SCAN, started);
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Current metrics; empty unless enabled with {@link DatabaseOptions#metricsEnabled}. */
+    public MetricsSnapshot getMetrics() {
+        return metrics == null ? MetricsSnapshot.empty() : metrics.snapshot();
+    }
+
+    public void resetMetrics() {
+        if (metrics != null) metrics.reset();
+    }
+
+    public StudentCache.Stats getCacheStats() {
+        return cache.stats();
     }
 
     public List<Student> getAllStudents() throws IOException {
-        List<Student> list = new ArrayList<>();
-        dataFile.seek(0);
-        while (dataFile.getFilePointer() < dataFile.length()) {
-            list.add(Student.readFrom(dataFile));
+        long started = startTimer();
+        lock.readLock().lock();
+        try {
+            List<Student> list = new ArrayList<>();
+            long length = store.length();
+            int recordSize = store.format().recordSize();
+            for (long offset = store.format().dataStart(); offset < length; offset += recordSize) {
+                Student s = readRecord(offset);
+                if (s != null) list.add(s);
+            }
+            return list;
+        } finally {
+            stopTimer(DatabaseMetrics.Operation.SCAN, started);
+            lock.readLock().unlock();
         }
-        return list;
     }
 }
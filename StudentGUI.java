@@ -1,21 +1,33 @@
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
-import java.awt.event.ActionEvent;
-import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
 
 public class StudentGUI extends JFrame {
+    /** Database work run off the event dispatch thread. */
+    private interface DbTask<T> {
+        T run(ProgressListener progress) throws Exception;
+    }
+
     private StudentDatabase db;
     private JTable table;
-    private DefaultTableModel tableModel;
+    private StudentTableModel tableModel;
+    private final List<JButton> actionButtons = new ArrayList<>();
+    private JLabel statusLabel;
+    private JProgressBar progressBar;
+    private JButton cancelBtn;
+    private SwingWorker<?, ?> currentTask;
 
     public StudentGUI() {
         setTitle("Student File Database");
         setSize(800, 600);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        tableModel = new DefaultTableModel(new Object[]{"ID", "Name", "GPA", "Year"}, 0);
+        tableModel = new StudentTableModel();
         table = new JTable(tableModel);
         add(new JScrollPane(table), BorderLayout.CENTER);
 
@@ -33,8 +45,27 @@ public class StudentGUI extends JFrame {
         panel.add(searchBtn);
         panel.add(editBtn);
         panel.add(backupBtn);
+        actionButtons.add(openBtn);
+        actionButtons.add(addBtn);
+        actionButtons.add(deleteBtn);
+        actionButtons.add(searchBtn);
+        actionButtons.add(editBtn);
+        actionButtons.add(backupBtn);
+
+        statusLabel = new JLabel(" ");
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setVisible(false);
+        cancelBtn = new JButton("Cancel");
+        cancelBtn.setEnabled(false);
+        JPanel statusPanel = new JPanel(new BorderLayout(5, 0));
+        statusPanel.add(statusLabel, BorderLayout.WEST);
+        statusPanel.add(progressBar, BorderLayout.CENTER);
+        statusPanel.add(cancelBtn, BorderLayout.EAST);
 
-        add(panel, BorderLayout.SOUTH);
+        JPanel south = new JPanel(new BorderLayout());
+        south.add(panel, BorderLayout.CENTER);
+        south.add(statusPanel, BorderLayout.SOUTH);
+        add(south, BorderLayout.SOUTH);
 
         openBtn.addActionListener(e -> openDB());
         addBtn.addActionListener(e -> addStudent());
@@ -42,77 +73,155 @@ public class StudentGUI extends JFrame {
         searchBtn.addActionListener(e -> searchStudent());
         editBtn.addActionListener(e -> editStudent());
         backupBtn.addActionListener(e -> backupDB());
+        cancelBtn.addActionListener(e -> {
+            // no interrupt: it would close the database's shared file channel
+            if (currentTask != null) currentTask.cancel(false);
+        });
 
         setVisible(true);
     }
 
+    /**
+     * Runs {@code task} on a background worker while the action buttons are
+     * disabled, then hands the result to {@code onSuccess} on the EDT. Failures are
+     * shown as {@code errorMessage}, optionally followed by the exception message.
+     */
+    private <T> void runTask(String description, String errorMessage, boolean showCause,
+                             DbTask<T> task, Consumer<T> onSuccess) {
+        SwingWorker<T, Void> worker = new SwingWorker<T, Void>() {
+            @Override
+            protected T doInBackground() throws Exception {
+                SwingWorker<T, Void> self = this;
+                return task.run(new ProgressListener() {
+                    @Override
+                    public void progress(double fraction) {
+                        setProgress((int) Math.round(fraction * 100));
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return self.isCancelled();
+                    }
+                });
+            }
+
+            @Override
+            protected void done() {
+                setBusy(null, null);
+                try {
+                    onSuccess.accept(get());
+                } catch (CancellationException | InterruptedException ex) {
+                    statusLabel.setText(description + " cancelled");
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof InterruptedIOException) {
+                        statusLabel.setText(description + " cancelled");
+                    } else {
+                        JOptionPane.showMessageDialog(StudentGUI.this,
+                                showCause ? errorMessage + ": " + cause.getMessage() : errorMessage);
+                    }
+                }
+            }
+        };
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                progressBar.setIndeterminate(false);
+                progressBar.setValue((Integer) e.getNewValue());
+            }
+        });
+        setBusy(worker, description);
+        worker.execute();
+    }
+
+    private void setBusy(SwingWorker<?, ?> worker, String description) {
+        currentTask = worker;
+        boolean busy = worker != null;
+        for (JButton button : actionButtons) {
+            button.setEnabled(!busy);
+        }
+        cancelBtn.setEnabled(busy);
+        progressBar.setVisible(busy);
+        progressBar.setIndeterminate(true);
+        progressBar.setValue(0);
+        statusLabel.setText(busy ? description + "..." : " ");
+    }
+
     private void openDB() {
         String name = JOptionPane.showInputDialog(this, "DB Name:");
         if (name == null || name.trim().isEmpty()) return;
-        try {
-            if (db != null) db.close();
-            db = new StudentDatabase(name.trim());
-            refreshTable();
-            JOptionPane.showMessageDialog(this, "DB opened!");
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage());
-        }
+        StudentDatabase previous = db;
+        db = null;
+        runTask("Opening", "Error", true, p -> {
+            if (previous != null) previous.close();
+            return new StudentDatabase(name.trim());
+        }, opened -> {
+            db = opened;
+            refreshTable(() -> JOptionPane.showMessageDialog(this, "DB opened!"));
+        });
     }
 
-    private void refreshTable() {
-        tableModel.setRowCount(0);
-        if (db == null) return;
-        try {
-            List<Student> students = db.getAllStudents();
-            for (Student s : students) {
-                tableModel.addRow(new Object[]{
-                        s.getStudentId(),
-                        s.getName(),
-                        s.getGpa(),
-                        s.getEnrollmentYear()
-                });
-            }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Refresh error");
+    private void refreshTable(Runnable then) {
+        if (db == null) {
+            tableModel.setData(null, new long[0]);
+            return;
         }
+        StudentDatabase current = db;
+        runTask("Loading", "Refresh error", false, p -> current.liveSlots(), slots -> {
+            tableModel.setData(current, slots);
+            if (then != null) then.run();
+        });
     }
 
     private void addStudent() {
+        Student student;
         try {
             int id = Integer.parseInt(JOptionPane.showInputDialog("ID:"));
             String name = JOptionPane.showInputDialog("Name:");
             double gpa = Double.parseDouble(JOptionPane.showInputDialog("GPA:"));
             int year = Integer.parseInt(JOptionPane.showInputDialog("Year:"));
-            if (db.addStudent(new Student(id, name, gpa, year))) {
-                refreshTable();
-                JOptionPane.showMessageDialog(this, "Added!");
-            } else {
-                JOptionPane.showMessageDialog(this, "ID already exists!");
-            }
+            student = new Student(id, name, gpa, year);
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Invalid input");
+            return;
         }
+        runTask("Adding", "Invalid input", false,
+                p -> db.addStudent(student) ? db.slotOf(student.getStudentId()) : -1L,
+                slot -> {
+                    if (slot >= 0) {
+                        tableModel.slotChanged(slot);
+                        JOptionPane.showMessageDialog(this, "Added!");
+                    } else {
+                        JOptionPane.showMessageDialog(this, "ID already exists!");
+                    }
+                });
     }
 
     private void deleteStudent() {
+        int id;
         try {
-            int id = Integer.parseInt(JOptionPane.showInputDialog("ID to delete:"));
-            if (db.deleteStudentById(id)) {
-                refreshTable();
+            id = Integer.parseInt(JOptionPane.showInputDialog("ID to delete:"));
+        } catch (Exception ex) {
+            JOptionPane.showMessageDialog(this, "Error");
+            return;
+        }
+        runTask("Deleting", "Error", false, p -> {
+            long slot = db.slotOf(id);
+            return db.deleteStudentById(id) ? slot : -1L;
+        }, slot -> {
+            if (slot >= 0) {
+                tableModel.slotRemoved(slot);
                 JOptionPane.showMessageDialog(this, "Deleted!");
             } else {
                 JOptionPane.showMessageDialog(this, "Not found!");
             }
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error");
-        }
+        });
     }
 
     private void searchStudent() {
-        String field = JOptionPane.showInputDialog("Field (name/gpa/year):");
+        String field = JOptionPane.showInputDialog("Field (name/prefix/gpa/year):");
         if (field == null) return;
+        Object value;
         try {
-            Object value;
             if ("gpa".equals(field)) {
                 value = Double.parseDouble(JOptionPane.showInputDialog("Value:"));
             } else if ("year".equals(field)) {
@@ -120,11 +229,15 @@ public class StudentGUI extends JFrame {
             } else {
                 value = JOptionPane.showInputDialog("Value:");
             }
-            List<Student> results = db.findStudentsByField(field, value);
-            showSearchResults(results);
         } catch (Exception ex) {
             JOptionPane.showMessageDialog(this, "Search error");
+            return;
         }
+        runTask("Searching", "Search error", false,
+                p -> "prefix".equals(field)
+                        ? db.findStudentsByNamePrefix((String) value)
+                        : db.findStudentsByField(field, value),
+                this::showSearchResults);
     }
 
     private void showSearchResults(List<Student> results) {
@@ -140,37 +253,52 @@ public class StudentGUI extends JFrame {
     }
 
     private void editStudent() {
+        int id;
         try {
-            int id = Integer.parseInt(JOptionPane.showInputDialog("ID to edit:"));
-            Student s = db.findStudentById(id);
+            id = Integer.parseInt(JOptionPane.showInputDialog("ID to edit:"));
+        } catch (Exception ex) {
+            JOptionPane.showMessageDialog(this, "Edit error");
+            return;
+        }
+        runTask("Loading", "Edit error", false, p -> db.findStudentById(id), s -> {
             if (s == null) {
                 JOptionPane.showMessageDialog(this, "Not found!");
                 return;
             }
-            String name = JOptionPane.showInputDialog("New name:", s.getName());
-            double gpa = Double.parseDouble(JOptionPane.showInputDialog("New GPA:", s.getGpa()));
-            int year = Integer.parseInt(JOptionPane.showInputDialog("New Year:", s.getEnrollmentYear()));
-            s.setName(name);
-            s.setGpa(gpa);
-            s.setEnrollmentYear(year);
-            db.updateStudent(s);
-            refreshTable();
-            JOptionPane.showMessageDialog(this, "Updated!");
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Edit error");
-        }
+            try {
+                String name = JOptionPane.showInputDialog("New name:", s.getName());
+                double gpa = Double.parseDouble(JOptionPane.showInputDialog("New GPA:", s.getGpa()));
+                int year = Integer.parseInt(JOptionPane.showInputDialog("New Year:", s.getEnrollmentYear()));
+                s.setName(name);
+                s.setGpa(gpa);
+                s.setEnrollmentYear(year);
+            } catch (Exception ex) {
+                JOptionPane.showMessageDialog(this, "Edit error");
+                return;
+            }
+            runTask("Saving", "Edit error", false, p -> {
+                db.updateStudent(s);
+                return db.slotOf(id);
+            }, slot -> {
+                tableModel.slotChanged(slot);
+                JOptionPane.showMessageDialog(this, "Updated!");
+            });
+        });
     }
 
     private void backupDB() {
-        try {
-            String name = JOptionPane.showInputDialog("Backup name:");
-            if (name != null && !name.isEmpty()) {
-                db.backup(name);
-                JOptionPane.showMessageDialog(this, "Backup created!");
+        String name = JOptionPane.showInputDialog("Backup name:");
+        if (name == null || name.isEmpty()) return;
+        String base = JOptionPane.showInputDialog("Base backup (empty for a full backup):");
+        if (base == null) return;
+        runTask("Backing up", "Backup failed", true, p -> {
+            if (base.trim().isEmpty()) {
+                db.backup(name, p);
+            } else {
+                db.backupIncremental(name, base.trim(), p);
             }
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Backup failed: " + ex.getMessage());
-        }
+            return null;
+        }, ignored -> JOptionPane.showMessageDialog(this, "Backup created!"));
     }
 
     public static void main(String[] args) {
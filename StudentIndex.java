@@ -1,44 +1,114 @@
 import java.io.*;
-import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
 
 public class StudentIndex {
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int MIN_COMPACT_RECORDS = 4096;
+    private static final int ENTRY_SIZE = 4 + 8;
+
     private String indexPath;
-    private Map<Integer, Long> index;
+    private IntLongHashMap index;
+    private IndexJournal journal;
+    private final DatabaseMetrics.FileMetrics io;
+    private boolean corrupt;
 
     public StudentIndex(String indexPath) {
+        this(indexPath, null);
+    }
+
+    /** @param io byte counters for the snapshot and journal, or null */
+    public StudentIndex(String indexPath, DatabaseMetrics.FileMetrics io) {
         this.indexPath = indexPath;
-        this.index = new HashMap<>();
-        loadIndex();
+        this.io = io;
+        this.index = new IntLongHashMap();
+        this.journal = new IndexJournal(indexPath + ".log", io);
+        boolean headerless = loadIndex();
+        replayJournal();
+        if (headerless && !corrupt) saveIndex();
     }
 
-    private void loadIndex() {
+    /** Loads the snapshot, returning true if it was in the headerless layout and needs rewriting. */
+    private boolean loadIndex() {
+        Path file = Paths.get(indexPath);
         index.clear();
-        File file = new File(indexPath);
-        if (!file.exists()) return;
-        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
-            while (in.available() > 0) {
-                int id = in.readInt();
-                long offset = in.readLong();
-                index.put(id, offset);
+        if (!Files.exists(file)) return false;
+        try {
+            IndexFile.Contents contents = IndexFile.read(file, io);
+            if (contents == null) {
+                loadHeaderless(file);
+                return true;
+            }
+            ByteBuffer body = contents.body;
+            if (body.remaining() != contents.entries * ENTRY_SIZE) throw new IOException("Bad entry count in " + file);
+            index = new IntLongHashMap((int) contents.entries);
+            while (body.hasRemaining()) {
+                index.put(body.getInt(), body.getLong());
             }
         } catch (IOException e) {
             e.printStackTrace();
+            index.clear();
+            corrupt = true;
         }
+        return false;
     }
 
-    public void saveIndex() {
-        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(indexPath))) {
-            for (Map.Entry<Integer, Long> entry : index.entrySet()) {
-                out.writeInt(entry.getKey());
-                out.writeLong(entry.getValue());
+    private void loadHeaderless(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() % ENTRY_SIZE != 0) throw new EOFException("Truncated index " + file);
+            index = new IntLongHashMap((int) (channel.size() / ENTRY_SIZE));
+            ByteBuffer buf = ByteBuffer.allocate(ENTRY_SIZE * 8192);
+            while (channel.read(buf) >= 0) {
+                buf.flip();
+                while (buf.remaining() >= ENTRY_SIZE) {
+                    index.put(buf.getInt(), buf.getLong());
+                }
+                buf.compact();
             }
+        }
+    }
+
+    /** True if the snapshot on disk was damaged and could not be loaded; the index must be rebuilt. */
+    public boolean isCorrupt() {
+        return corrupt;
+    }
+
+    private void replayJournal() {
+        try {
+            journal.replay((op, in) -> {
+                int id = in.readInt();
+                if (op == OP_PUT) {
+                    index.put(id, in.readLong());
+                } else if (op == OP_REMOVE) {
+                    index.remove(id);
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void saveIndex() {
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(index.size() * ENTRY_SIZE);
+            index.forEach((id, offset) -> buf.putInt(id).putLong(offset));
+            IndexFile.write(Paths.get(indexPath), index.size(), out -> out.write(buf.array(), 0, buf.position()), io);
+            journal.reset();
+            corrupt = false;
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     public long findOffset(int studentId) {
-        return index.getOrDefault(studentId, -1L);
+        return index.get(studentId, -1L);
+    }
+
+    public int size() {
+        return index.size();
     }
 
     public boolean contains(int studentId) {
@@ -47,16 +117,110 @@ public class StudentIndex {
 
     public void addEntry(int studentId, long offset) {
         index.put(studentId, offset);
+        log(OP_PUT, studentId, offset);
+        persist();
+    }
+
+    /** Adds many entries without journaling them, then writes one snapshot. */
+    public void addEntries(int[] studentIds, long[] offsets, int count) {
+        for (int i = 0; i < count; i++) {
+            index.put(studentIds[i], offsets[i]);
+        }
         saveIndex();
     }
 
+    /**
+     * Adds many entries, journaling them with a single flush; a batch too large
+     * for the journal is written as one snapshot instead.
+     */
+    public void putEntries(int[] studentIds, long[] offsets, int count) {
+        if (count > Math.max(MIN_COMPACT_RECORDS, index.size())) {
+            addEntries(studentIds, offsets, count);
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            index.put(studentIds[i], offsets[i]);
+            log(OP_PUT, studentIds[i], offsets[i]);
+        }
+        persist();
+    }
+
     public void removeEntry(int studentId) {
         index.remove(studentId);
+        log(OP_REMOVE, studentId, -1L);
+        persist();
+    }
+
+    /** Removes many entries, journaling them with a single flush. */
+    public void removeEntries(int[] studentIds, int count) {
+        for (int i = 0; i < count; i++) {
+            if (index.remove(studentIds[i])) log(OP_REMOVE, studentIds[i], -1L);
+        }
+        persist();
+    }
+
+    private void log(byte op, int studentId, long offset) {
+        try {
+            journal.append(op, out -> {
+                out.writeInt(studentId);
+                if (op == OP_PUT) out.writeLong(offset);
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void persist() {
+        try {
+            journal.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (journal.size() > Math.max(MIN_COMPACT_RECORDS, index.size())) {
+            saveIndex();
+        }
+    }
+
+    public long[] offsets() {
+        return index.values();
+    }
+
+    /**
+     * Rewrites every offset through a compaction mapping ({@code oldOffsets} sorted
+     * ascending, {@code newOffsets} parallel to it) and persists one snapshot.
+     */
+    public void remap(long[] oldOffsets, long[] newOffsets) {
+        IntLongHashMap remapped = new IntLongHashMap(index.size());
+        index.forEach((id, offset) -> {
+            int pos = Arrays.binarySearch(oldOffsets, offset);
+            if (pos >= 0) remapped.put(id, newOffsets[pos]);
+        });
+        index = remapped;
         saveIndex();
     }
 
+    /** Forces journaled changes to disk; safe to call without holding the database lock. */
+    public void force() throws IOException {
+        journal.force();
+    }
+
     public void clear() {
         index.clear();
+        corrupt = false;
         new File(indexPath).delete();
+        try {
+            journal.reset();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void close() {
+        if (journal.size() > 0) saveIndex();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 }
@@ -0,0 +1,161 @@
+import javax.swing.SwingWorker;
+import javax.swing.table.AbstractTableModel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Table model that keeps only the slot numbers of live records in memory and
+ * reads rows from the database a page at a time as the table asks for them.
+ * Pages are loaded on a background worker; until a page arrives its rows show
+ * as empty and are repainted once it is published. Rows are in slot order.
+ * All methods must be called on the event dispatch thread.
+ */
+public class StudentTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"ID", "Name", "GPA", "Year"};
+    private static final int PAGE_SIZE = 256;
+    private static final int MAX_PAGES = 16;
+
+    private StudentDatabase db;
+    private long[] slots = new long[0];
+    private final Map<Integer, Student[]> pages = new LinkedHashMap<Integer, Student[]>(MAX_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Student[]> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    private final Set<Integer> loading = new HashSet<>();
+    private int generation;
+
+    /** Replaces the table contents; {@code slots} must be sorted ascending. */
+    public void setData(StudentDatabase db, long[] slots) {
+        this.db = db;
+        this.slots = slots;
+        invalidate();
+        fireTableDataChanged();
+    }
+
+    private void invalidate() {
+        pages.clear();
+        loading.clear();
+        generation++;
+    }
+
+    /** Call after the student in {@code slot} was added or edited; refreshes or inserts just that row. */
+    public void slotChanged(long slot) {
+        if (slot < 0) return;
+        int row = Arrays.binarySearch(slots, slot);
+        if (row >= 0) {
+            Student[] page = pages.get(row / PAGE_SIZE);
+            if (page != null) loadRow(row, page);
+            return;
+        }
+        row = -row - 1;
+        long[] grown = new long[slots.length + 1];
+        System.arraycopy(slots, 0, grown, 0, row);
+        grown[row] = slot;
+        System.arraycopy(slots, row, grown, row + 1, slots.length - row);
+        slots = grown;
+        invalidate();
+        fireTableRowsInserted(row, row);
+    }
+
+    /** Call after the record in {@code slot} was deleted. */
+    public void slotRemoved(long slot) {
+        int row = Arrays.binarySearch(slots, slot);
+        if (row < 0) return;
+        long[] shrunk = new long[slots.length - 1];
+        System.arraycopy(slots, 0, shrunk, 0, row);
+        System.arraycopy(slots, row + 1, shrunk, row, slots.length - row - 1);
+        slots = shrunk;
+        invalidate();
+        fireTableRowsDeleted(row, row);
+    }
+
+    @Override
+    public int getRowCount() {
+        return slots.length;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Student[] page = pages.get(row / PAGE_SIZE);
+        if (page == null) {
+            loadPage(row / PAGE_SIZE);
+            return null;
+        }
+        Student s = page[row % PAGE_SIZE];
+        if (s == null) return null;
+        switch (column) {
+            case 0: return s.getStudentId();
+            case 1: return s.getName();
+            case 2: return s.getGpa();
+            case 3: return s.getEnrollmentYear();
+            default: return null;
+        }
+    }
+
+    private void loadPage(int pageNo) {
+        if (!loading.add(pageNo)) return;
+        int start = pageNo * PAGE_SIZE;
+        long[] pageSlots = Arrays.copyOfRange(slots, start, Math.min(start + PAGE_SIZE, slots.length));
+        int expected = generation;
+        new SwingWorker<Student[], Void>() {
+            @Override
+            protected Student[] doInBackground() throws Exception {
+                Student[] page = new Student[pageSlots.length];
+                for (int i = 0; i < page.length; i++) {
+                    page[i] = db.readSlot(pageSlots[i]);
+                }
+                return page;
+            }
+
+            @Override
+            protected void done() {
+                if (expected != generation) return;
+                loading.remove(pageNo);
+                try {
+                    pages.put(pageNo, get());
+                    fireTableRowsUpdated(start, start + pageSlots.length - 1);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+
+    private void loadRow(int row, Student[] page) {
+        long slot = slots[row];
+        int expected = generation;
+        new SwingWorker<Student, Void>() {
+            @Override
+            protected Student doInBackground() throws Exception {
+                return db.readSlot(slot);
+            }
+
+            @Override
+            protected void done() {
+                if (expected != generation) return;
+                try {
+                    page[row % PAGE_SIZE] = get();
+                    fireTableRowsUpdated(row, row);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A batch of adds, updates and deletes applied atomically by {@link #commit}.
+ * Nothing touches the database until then: the batch is checked against the
+ * current contents, written to the redo log with a single flush and only then
+ * applied to the data file and indexes, so a crash leaves either all of it or
+ * none of it. Later operations on the same id see the earlier ones, e.g. a
+ * delete followed by an add of the same id acts as an update.
+ *
+ * <pre>
+ * Transaction tx = db.begin();
+ * for (Student s : students) tx.update(s);
+ * tx.commit();
+ * </pre>
+ */
+public class Transaction {
+    enum Kind { ADD, UPDATE, DELETE }
+
+    static final class Op {
+        final Kind kind;
+        final int studentId;
+        final Student student;
+
+        Op(Kind kind, int studentId, Student student) {
+            this.kind = kind;
+            this.studentId = studentId;
+            this.student = student;
+        }
+    }
+
+    private final StudentDatabase db;
+    private final List<Op> ops = new ArrayList<>();
+    private boolean finished;
+
+    Transaction(StudentDatabase db) {
+        this.db = db;
+    }
+
+    /** Adds a student; the commit fails if the id already exists. */
+    public Transaction add(Student student) {
+        return queue(new Op(Kind.ADD, student.getStudentId(), student));
+    }
+
+    /** Replaces the student with the same id; the commit fails if there is none. */
+    public Transaction update(Student student) {
+        return queue(new Op(Kind.UPDATE, student.getStudentId(), student));
+    }
+
+    /** Deletes a student; the commit fails if there is none. */
+    public Transaction delete(int studentId) {
+        return queue(new Op(Kind.DELETE, studentId, null));
+    }
+
+    public int size() {
+        return ops.size();
+    }
+
+    /**
+     * Applies the batch. If any operation does not fit the current contents an
+     * {@link IllegalArgumentException} is thrown and nothing is changed. Either way
+     * the transaction is finished afterwards.
+     */
+    public void commit() throws IOException {
+        finish();
+        db.commit(Collections.unmodifiableList(ops));
+    }
+
+    /** Discards the batch. */
+    public void rollback() {
+        finish();
+        ops.clear();
+    }
+
+    private Transaction queue(Op op) {
+        if (finished) throw new IllegalStateException("Transaction already finished");
+        ops.add(op);
+        return this;
+    }
+
+    private void finish() {
+        if (finished) throw new IllegalStateException("Transaction already finished");
+        finished = true;
+    }
+}
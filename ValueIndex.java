@@ -1,179 +1,386 @@
-import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
-import java.awt.*;
-import java.awt.event.ActionEvent;
-import java.io.IOException;
-import java.util.List;
-
-public class StudentGUI extends JFrame {
-    private StudentDatabase db;
-    private JTable table;
-    private DefaultTableModel tableModel;
-
-    public StudentGUI() {
-        setTitle("Student File Database");
-        setSize(800, 600);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-
-        tableModel = new DefaultTableModel(new Object[]{"ID", "Name", "GPA", "Year"}, 0);
-        table = new JTable(tableModel);
-        add(new JScrollPane(table), BorderLayout.CENTER);
-
-        JPanel panel = new JPanel(new GridLayout(1, 6));
-        JButton openBtn = new JButton("Open DB");
-        JButton addBtn = new JButton("Add");
-        JButton deleteBtn = new JButton("Delete by ID");
-        JButton searchBtn = new JButton("Search");
-        JButton editBtn = new JButton("Edit");
-        JButton backupBtn = new JButton("Backup");
-
-        panel.add(openBtn);
-        panel.add(addBtn);
-        panel.add(deleteBtn);
-        panel.add(searchBtn);
-        panel.add(editBtn);
-        panel.add(backupBtn);
-
-        add(panel, BorderLayout.SOUTH);
-
-        openBtn.addActionListener(e -> openDB());
-        addBtn.addActionListener(e -> addStudent());
-        deleteBtn.addActionListener(e -> deleteStudent());
-        searchBtn.addActionListener(e -> searchStudent());
-        editBtn.addActionListener(e -> editStudent());
-        backupBtn.addActionListener(e -> backupDB());
-
-        setVisible(true);
-    }
-
-    private void openDB() {
-        String name = JOptionPane.showInputDialog(this, "DB Name:");
-        if (name == null || name.trim().isEmpty()) return;
-        try {
-            if (db != null) db.close();
-            db = new StudentDatabase(name.trim());
-            refreshTable();
-            JOptionPane.showMessageDialog(this, "DB opened!");
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error: " + ex.getMessage());
-        }
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Secondary index from an encoded field value to the offsets of the records
+ * holding it. Keys are kept in a sorted map so range and top-N queries only
+ * touch the matching part of the index; offsets under one key are sorted too.
+ * For low-cardinality fields the index can also keep a {@link SlotBitmap} of
+ * slot numbers per key (see {@link #useBitmaps}), so cohorts can be counted,
+ * intersected and merged without touching the offset lists.
+ */
+public class ValueIndex {
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final int MIN_COMPACT_RECORDS = 4096;
+
+    private String indexPath;
+    private TreeMap<Long, List<Long>> index;
+    private IndexJournal journal;
+    private final DatabaseMetrics.FileMetrics io;
+    private int entryCount;
+    private boolean corrupt;
+    private TreeMap<Long, SlotBitmap> bitmaps;
+    private long slotBase;
+    private int slotSize;
+
+    public ValueIndex(String indexPath) {
+        this(indexPath, null);
     }
 
-    private void refreshTable() {
-        tableModel.setRowCount(0);
-        if (db == null) return;
+    /** @param io byte counters for the snapshot and journal, or null */
+    public ValueIndex(String indexPath, DatabaseMetrics.FileMetrics io) {
+        this.indexPath = indexPath;
+        this.io = io;
+        this.index = new TreeMap<>();
+        this.journal = new IndexJournal(indexPath + ".log", io);
+        boolean headerless = loadIndex();
+        replayJournal();
+        if (headerless && !corrupt) saveIndex();
+    }
+
+    /** Loads the snapshot, returning true if it was in the headerless layout and needs rewriting. */
+    private boolean loadIndex() {
+        index.clear();
+        entryCount = 0;
+        Path file = Paths.get(indexPath);
+        if (!Files.exists(file)) return false;
         try {
-            List<Student> students = db.getAllStudents();
-            for (Student s : students) {
-                tableModel.addRow(new Object[]{
-                        s.getStudentId(),
-                        s.getName(),
-                        s.getGpa(),
-                        s.getEnrollmentYear()
-                });
+            IndexFile.Contents contents = IndexFile.read(file, io);
+            if (contents == null) {
+                loadHeaderless(file);
+                return true;
             }
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(this, "Refresh error");
+            ByteBuffer body = contents.body;
+            while (body.hasRemaining()) {
+                long key = body.getLong();
+                int count = body.getInt();
+                if (count <= 0 || count > body.remaining() / 8) throw new IOException("Bad entry count in " + file);
+                List<Long> offsets = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    offsets.add(body.getLong());
+                }
+                index.put(key, offsets);
+                entryCount += count;
+            }
+            if (entryCount != contents.entries) throw new IOException("Bad entry count in " + file);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            index.clear();
+            entryCount = 0;
+            corrupt = true;
         }
+        return false;
     }
 
-    private void addStudent() {
-        try {
-            int id = Integer.parseInt(JOptionPane.showInputDialog("ID:"));
-            String name = JOptionPane.showInputDialog("Name:");
-            double gpa = Double.parseDouble(JOptionPane.showInputDialog("GPA:"));
-            int year = Integer.parseInt(JOptionPane.showInputDialog("Year:"));
-            if (db.addStudent(new Student(id, name, gpa, year))) {
-                refreshTable();
-                JOptionPane.showMessageDialog(this, "Added!");
-            } else {
-                JOptionPane.showMessageDialog(this, "ID already exists!");
+    private void loadHeaderless(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            while (in.available() > 0) {
+                long key = in.readLong();
+                int count = in.readInt();
+                List<Long> offsets = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    offsets.add(in.readLong());
+                }
+                index.put(key, offsets);
+                entryCount += count;
             }
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Invalid input");
         }
     }
 
-    private void deleteStudent() {
+    /** True if the snapshot on disk was damaged and could not be loaded; the index must be rebuilt. */
+    public boolean isCorrupt() {
+        return corrupt;
+    }
+
+    private void replayJournal() {
         try {
-            int id = Integer.parseInt(JOptionPane.showInputDialog("ID to delete:"));
-            if (db.deleteStudentById(id)) {
-                refreshTable();
-                JOptionPane.showMessageDialog(this, "Deleted!");
-            } else {
-                JOptionPane.showMessageDialog(this, "Not found!");
-            }
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Error");
+            journal.replay((op, in) -> {
+                long key = in.readLong();
+                long offset = in.readLong();
+                if (op == OP_ADD) {
+                    put(key, offset);
+                } else if (op == OP_REMOVE) {
+                    remove(key, offset);
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
-    private void searchStudent() {
-        String field = JOptionPane.showInputDialog("Field (name/gpa/year):");
-        if (field == null) return;
+    public void saveIndex() {
         try {
-            Object value;
-            if ("gpa".equals(field)) {
-                value = Double.parseDouble(JOptionPane.showInputDialog("Value:"));
-            } else if ("year".equals(field)) {
-                value = Integer.parseInt(JOptionPane.showInputDialog("Value:"));
-            } else {
-                value = JOptionPane.showInputDialog("Value:");
+            IndexFile.write(Paths.get(indexPath), entryCount, out -> {
+                for (Map.Entry<Long, List<Long>> entry : index.entrySet()) {
+                    out.writeLong(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (long offset : entry.getValue()) {
+                        out.writeLong(offset);
+                    }
+                }
+            }, io);
+            journal.reset();
+            corrupt = false;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public List<Long> getOffsets(long key) {
+        List<Long> offsets = index.get(key);
+        return offsets == null ? new ArrayList<>() : new ArrayList<>(offsets);
+    }
+
+    public List<Long> getOffsetsInRange(long fromKey, long toKey) {
+        List<Long> result = new ArrayList<>();
+        if (fromKey > toKey) return result;
+        for (List<Long> offsets : index.subMap(fromKey, true, toKey, true).values()) {
+            result.addAll(offsets);
+        }
+        return result;
+    }
+
+    /**
+     * Keeps a bitmap of slot numbers per key from now on, where the slot of an
+     * offset is {@code (offset - dataStart) / recordSize}. Called again after the
+     * record layout changes; {@link #remap} drops the bitmaps until then.
+     */
+    public void useBitmaps(long dataStart, int recordSize) {
+        slotBase = dataStart;
+        slotSize = recordSize;
+        bitmaps = new TreeMap<>();
+        for (Map.Entry<Long, List<Long>> entry : index.entrySet()) {
+            SlotBitmap bitmap = new SlotBitmap();
+            for (long offset : entry.getValue()) {
+                bitmap.add(slot(offset));
             }
-            List<Student> results = db.findStudentsByField(field, value);
-            showSearchResults(results);
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Search error");
+            bitmaps.put(entry.getKey(), bitmap);
+        }
+    }
+
+    public boolean hasBitmaps() {
+        return bitmaps != null;
+    }
+
+    /**
+     * Slots of the records with keys in {@code [fromKey, toKey]}, or null without
+     * bitmaps. The result may be the index's own bitmap and must not be modified.
+     */
+    SlotBitmap bitmapInRange(long fromKey, long toKey) {
+        if (bitmaps == null) return null;
+        if (fromKey > toKey) return new SlotBitmap();
+        Collection<SlotBitmap> matching = bitmaps.subMap(fromKey, true, toKey, true).values();
+        return matching.size() == 1 ? matching.iterator().next() : SlotBitmap.union(matching);
+    }
+
+    /** Slot bitmap of every key, in key order, or null without bitmaps. Must not be modified. */
+    SortedMap<Long, SlotBitmap> bitmaps() {
+        return bitmaps == null ? null : Collections.unmodifiableSortedMap(bitmaps);
+    }
+
+    private int slot(long offset) {
+        return (int) ((offset - slotBase) / slotSize);
+    }
+
+    /** Number of offsets under keys in {@code [fromKey, toKey]}, without copying them. */
+    public long countInRange(long fromKey, long toKey) {
+        if (fromKey > toKey) return 0;
+        long count = 0;
+        for (List<Long> offsets : index.subMap(fromKey, true, toKey, true).values()) {
+            count += offsets.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns offsets walking keys from the highest down, stopping after the
+     * key at which at least {@code limit} offsets have been collected. The last
+     * key is returned whole, so callers can break ties on the exact value.
+     */
+    public List<Long> getOffsetsDescending(int limit) {
+        List<Long> result = new ArrayList<>();
+        for (List<Long> offsets : index.descendingMap().values()) {
+            if (result.size() >= limit) break;
+            result.addAll(offsets);
+        }
+        return result;
+    }
+
+    public int size() {
+        return entryCount;
+    }
+
+    public void addEntry(long key, long offset) {
+        put(key, offset);
+        log(OP_ADD, key, offset);
+        persist();
+    }
+
+    /** Adds many entries without journaling them, then writes one snapshot. */
+    public void addEntries(long[] keys, long[] offsets, int count) {
+        for (int i = 0; i < count; i++) {
+            put(keys[i], offsets[i]);
         }
+        saveIndex();
     }
 
-    private void showSearchResults(List<Student> results) {
-        if (results.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "No records found.");
+    /** See {@link StudentIndex#putEntries}. */
+    public void putEntries(long[] keys, long[] offsets, int count) {
+        if (count > Math.max(MIN_COMPACT_RECORDS, entryCount)) {
+            addEntries(keys, offsets, count);
             return;
         }
-        StringBuilder sb = new StringBuilder("Found:\n");
-        for (Student s : results) {
-            sb.append(s.toString()).append("\n");
+        for (int i = 0; i < count; i++) {
+            put(keys[i], offsets[i]);
+            log(OP_ADD, keys[i], offsets[i]);
         }
-        JOptionPane.showMessageDialog(this, sb.toString());
+        persist();
     }
 
-    private void editStudent() {
-        try {
-            int id = Integer.parseInt(JOptionPane.showInputDialog("ID to edit:"));
-            Student s = db.findStudentById(id);
-            if (s == null) {
-                JOptionPane.showMessageDialog(this, "Not found!");
-                return;
+    public void removeEntry(long key, long offset) {
+        if (remove(key, offset)) {
+            log(OP_REMOVE, key, offset);
+            persist();
+        }
+    }
+
+    /**
+     * Removes many entries, journaling them with a single flush. Removals are
+     * grouped by key so each offset list is filtered in one pass, or searched
+     * offset by offset when only a few of its entries go.
+     */
+    public void removeEntries(long[] keys, long[] offsets, int count) {
+        Map<Long, Set<Long>> byKey = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            byKey.computeIfAbsent(keys[i], k -> new HashSet<>()).add(offsets[i]);
+        }
+        for (Map.Entry<Long, Set<Long>> entry : byKey.entrySet()) {
+            long key = entry.getKey();
+            List<Long> list = index.get(key);
+            if (list == null) continue;
+            Set<Long> victims = entry.getValue();
+            if (victims.size() * 16 < list.size()) {
+                for (long offset : victims) {
+                    if (remove(key, offset)) log(OP_REMOVE, key, offset);
+                }
+                continue;
             }
-            String name = JOptionPane.showInputDialog("New name:", s.getName());
-            double gpa = Double.parseDouble(JOptionPane.showInputDialog("New GPA:", s.getGpa()));
-            int year = Integer.parseInt(JOptionPane.showInputDialog("New Year:", s.getEnrollmentYear()));
-            s.setName(name);
-            s.setGpa(gpa);
-            s.setEnrollmentYear(year);
-            db.updateStudent(s);
-            refreshTable();
-            JOptionPane.showMessageDialog(this, "Updated!");
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Edit error");
+            for (long offset : victims) {
+                if (Collections.binarySearch(list, offset) >= 0) log(OP_REMOVE, key, offset);
+            }
+            int before = list.size();
+            list.removeIf(victims::contains);
+            entryCount -= before - list.size();
+            if (bitmaps != null) {
+                SlotBitmap bitmap = bitmaps.get(key);
+                for (long offset : victims) {
+                    bitmap.remove(slot(offset));
+                }
+                if (list.isEmpty()) bitmaps.remove(key);
+            }
+            if (list.isEmpty()) index.remove(key);
+        }
+        persist();
+    }
+
+    private void put(long key, long offset) {
+        List<Long> offsets = index.computeIfAbsent(key, k -> new ArrayList<>());
+        int pos = Collections.binarySearch(offsets, offset);
+        if (pos < 0) {
+            offsets.add(-pos - 1, offset);
+            entryCount++;
+            if (bitmaps != null) bitmaps.computeIfAbsent(key, k -> new SlotBitmap()).add(slot(offset));
         }
     }
 
-    private void backupDB() {
+    private boolean remove(long key, long offset) {
+        List<Long> offsets = index.get(key);
+        if (offsets == null) return false;
+        int pos = Collections.binarySearch(offsets, offset);
+        if (pos < 0) return false;
+        offsets.remove(pos);
+        if (offsets.isEmpty()) index.remove(key);
+        entryCount--;
+        if (bitmaps != null) {
+            SlotBitmap bitmap = bitmaps.get(key);
+            bitmap.remove(slot(offset));
+            if (offsets.isEmpty()) bitmaps.remove(key);
+        }
+        return true;
+    }
+
+    private void log(byte op, long key, long offset) {
         try {
-            String name = JOptionPane.showInputDialog("Backup name:");
-            if (name != null && !name.isEmpty()) {
-                db.backup(name);
-                JOptionPane.showMessageDialog(this, "Backup created!");
+            journal.append(op, out -> {
+                out.writeLong(key);
+                out.writeLong(offset);
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void persist() {
+        try {
+            journal.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (journal.size() > Math.max(MIN_COMPACT_RECORDS, entryCount)) {
+            saveIndex();
+        }
+    }
+
+    /** See {@link StudentIndex#remap}; the mapping is order-preserving, so lists stay sorted. */
+    public void remap(long[] oldOffsets, long[] newOffsets) {
+        bitmaps = null;
+        entryCount = 0;
+        Iterator<List<Long>> it = index.values().iterator();
+        while (it.hasNext()) {
+            List<Long> offsets = it.next();
+            List<Long> remapped = new ArrayList<>(offsets.size());
+            for (long offset : offsets) {
+                int pos = Arrays.binarySearch(oldOffsets, offset);
+                if (pos >= 0) remapped.add(newOffsets[pos]);
+            }
+            if (remapped.isEmpty()) {
+                it.remove();
+            } else {
+                offsets.clear();
+                offsets.addAll(remapped);
+                entryCount += remapped.size();
             }
-        } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "Backup failed: " + ex.getMessage());
         }
+        saveIndex();
     }
 
-    public static void main(String[] args) {
-        SwingUtilities.invokeLater(StudentGUI::new);
+    /** Forces journaled changes to disk; safe to call without holding the database lock. */
+    public void force() throws IOException {
+        journal.force();
+    }
+
+    public void clear() {
+        index.clear();
+        if (bitmaps != null) bitmaps.clear();
+        entryCount = 0;
+        corrupt = false;
+        new File(indexPath).delete();
+        try {
+            journal.reset();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void close() {
+        if (journal.size() > 0 || !new File(indexPath).exists()) saveIndex();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 }
@@ -0,0 +1,119 @@
+package studentdb.bench;
+
+import studentdb.Student;
+import studentdb.StudentDatabase;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Builds deterministic benchmark databases. Student {@code i} of a dataset always
+ * gets the same name, GPA and year for a given seed, so a dataset can be rebuilt
+ * identically on any machine. Datasets are cached under the directory named by
+ * the {@code studentdb.datasets} system property (default {@code datasets}).
+ *
+ * <pre>java -cp target/benchmarks.jar studentdb.bench.DatasetGenerator &lt;dbName&gt; &lt;records&gt; [seed]</pre>
+ */
+public final class DatasetGenerator {
+    public static final long DEFAULT_SEED = 42;
+    private static final int CHUNK = 1_000_000;
+    private static final String[] FIRST_NAMES = {
+            "Anna", "Boris", "Daria", "Egor", "Irina", "Ivan", "Maria", "Mikhail", "Natalia", "Oleg",
+            "Olga", "Pavel", "Sofia", "Timur", "Yulia", "Alexei", "Elena", "Dmitry", "Ksenia", "Roman"};
+    private static final String[] LAST_NAMES = {
+            "Ivanov", "Petrova", "Sidorov", "Smirnova", "Kuznetsov", "Popova", "Vasiliev", "Sokolova",
+            "Mikhailov", "Novikova", "Fedorov", "Morozova", "Volkov", "Alekseeva", "Lebedev", "Semenova",
+            "Egorov", "Pavlova", "Kozlov", "Stepanova", "Nikolaev", "Orlova", "Andreev", "Makarova", "Zakharov"};
+
+    private DatasetGenerator() {
+    }
+
+    /** The {@code index}-th student of the dataset generated with {@code seed}; its id is {@code index}. */
+    public static Student student(long seed, int index) {
+        SplittableRandom random = new SplittableRandom(seed * 0x9E3779B97F4A7C15L + index);
+        String name = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+        return new Student(index, name, random.nextInt(401) / 100.0, 2000 + random.nextInt(25));
+    }
+
+    /** Creates {@code dbName} with {@code records} students, replacing any existing database of that name. */
+    public static void generate(String dbName, int records, long seed) throws IOException {
+        deleteDatabase(dbName);
+        StudentDatabase db = new StudentDatabase(dbName);
+        try {
+            for (int from = 0; from < records; from += CHUNK) {
+                int start = from;
+                int end = Math.min(records, from + CHUNK);
+                db.addStudents(() -> new Iterator<Student>() {
+                    private int next = start;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < end;
+                    }
+
+                    @Override
+                    public Student next() {
+                        return student(seed, next++);
+                    }
+                });
+            }
+        } finally {
+            db.close();
+        }
+    }
+
+    /** Name of the cached dataset with {@code records} students, generating it on first use. */
+    public static String prepare(int records) throws IOException {
+        Path dir = Paths.get(System.getProperty("studentdb.datasets", "datasets"));
+        Files.createDirectories(dir);
+        String dbName = dir.resolve("db-" + records).toString();
+        Path done = Paths.get(dbName + ".done");
+        if (!Files.exists(done)) {
+            generate(dbName, records, DEFAULT_SEED);
+            Files.createFile(done);
+        }
+        return dbName;
+    }
+
+    /** Copies the cached dataset into a fresh temporary directory, for benchmarks that modify it. */
+    public static String copyOf(int records) throws IOException {
+        Path source = Paths.get(prepare(records));
+        Path dir = Files.createTempDirectory("studentdb-bench");
+        for (Path file : databaseFiles(source.toString())) {
+            Files.copy(file, dir.resolve(file.getFileName()));
+        }
+        return dir.resolve(source.getFileName()).toString();
+    }
+
+    public static void deleteDatabase(String dbName) throws IOException {
+        for (Path file : databaseFiles(dbName)) {
+            Files.delete(file);
+        }
+    }
+
+    private static List<Path> databaseFiles(String dbName) throws IOException {
+        Path base = Paths.get(dbName).toAbsolutePath();
+        String prefix = base.getFileName().toString();
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(base.getParent())) return files;
+        try (Stream<Path> list = Files.list(base.getParent())) {
+            list.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(prefix + ".") || name.startsWith(prefix + "_");
+            }).forEach(files::add);
+        }
+        return files;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: DatasetGenerator <dbName> <records> [seed]");
+            System.exit(2);
+        }
+        long started = System.nanoTime();
+        generate(args[0], Integer.parseInt(args[1]), args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED);
+        System.out.printf("%s: %s records in %.1f s%n", args[0], args[1], (System.nanoTime() - started) / 1e9);
+    }
+}
@@ -0,0 +1,39 @@
+package studentdb.bench;
+
+import org.openjdk.jmh.annotations.*;
+import studentdb.StudentDatabase;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Time to open a database: loading the index snapshots and checking them against the data file. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class OpenBenchmark {
+    @Param({"10000", "1000000", "10000000"})
+    public int records;
+
+    private String dbName;
+    private StudentDatabase db;
+
+    @Setup(Level.Trial)
+    public void prepare() throws IOException {
+        dbName = DatasetGenerator.prepare(records);
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() throws IOException {
+        if (db != null) db.close();
+        db = null;
+    }
+
+    @Benchmark
+    public StudentDatabase open() {
+        db = new StudentDatabase(dbName);
+        return db;
+    }
+}
@@ -0,0 +1,87 @@
+package studentdb.bench;
+
+import org.openjdk.jmh.annotations.*;
+import studentdb.DatabaseOptions;
+import studentdb.Student;
+import studentdb.StudentDatabase;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point and field lookups. The hot-cache variant cycles over a small working set
+ * that fits the student cache; the cold variant uses a database opened with the
+ * cache disabled and picks ids uniformly from the whole dataset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReadBenchmark {
+    private static final int HOT_IDS = 1024;
+    private static final int QUERY_VALUES = 256;
+
+    @Param({"10000", "1000000", "10000000"})
+    public int records;
+
+    private StudentDatabase cached;
+    private StudentDatabase uncached;
+    private final int[] hotIds = new int[HOT_IDS];
+    private final String[] names = new String[QUERY_VALUES];
+    private final Double[] gpas = new Double[QUERY_VALUES];
+    private final Integer[] years = new Integer[QUERY_VALUES];
+    private final SplittableRandom random = new SplittableRandom(DatasetGenerator.DEFAULT_SEED);
+    private int next;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        String dbName = DatasetGenerator.prepare(records);
+        cached = new StudentDatabase(dbName);
+        uncached = new StudentDatabase(dbName, new DatabaseOptions().cacheSize(0));
+        for (int i = 0; i < HOT_IDS; i++) {
+            hotIds[i] = random.nextInt(records);
+            cached.findStudentById(hotIds[i]);
+        }
+        for (int i = 0; i < QUERY_VALUES; i++) {
+            Student s = DatasetGenerator.student(DatasetGenerator.DEFAULT_SEED, random.nextInt(records));
+            names[i] = s.getName();
+            gpas[i] = s.getGpa();
+            years[i] = s.getEnrollmentYear();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        cached.close();
+        uncached.close();
+    }
+
+    @Benchmark
+    public Student findStudentByIdHotCache() throws IOException {
+        return cached.findStudentById(hotIds[next++ & (HOT_IDS - 1)]);
+    }
+
+    @Benchmark
+    public Student findStudentByIdColdCache() throws IOException {
+        return uncached.findStudentById(random.nextInt(records));
+    }
+
+    @Benchmark
+    public List<Student> findStudentsByName() throws IOException {
+        return uncached.findStudentsByField("name", names[next++ & (QUERY_VALUES - 1)]);
+    }
+
+    @Benchmark
+    public List<Student> findStudentsByGpa() throws IOException {
+        return uncached.findStudentsByField("gpa", gpas[next++ & (QUERY_VALUES - 1)]);
+    }
+
+    @Benchmark
+    public List<Student> findStudentsByEnrollmentYear() throws IOException {
+        return uncached.findStudentsByField("enrollmentYear", years[next++ & (QUERY_VALUES - 1)]);
+    }
+}
@@ -0,0 +1,45 @@
+package studentdb.bench;
+
+import org.openjdk.jmh.annotations.*;
+import studentdb.Student;
+import studentdb.StudentDatabase;
+
+import java.io.IOException;
+import java.util.DoubleSummaryStatistics;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/** Full-table reads: materializing every student versus the parallel aggregation scan. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class ScanBenchmark {
+    @Param({"10000", "1000000", "10000000"})
+    public int records;
+
+    private StudentDatabase db;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        db = new StudentDatabase(DatasetGenerator.prepare(records));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        db.close();
+    }
+
+    @Benchmark
+    public List<Student> getAllStudents() throws IOException {
+        return db.getAllStudents();
+    }
+
+    @Benchmark
+    public SortedMap<Integer, DoubleSummaryStatistics> aggregateGpaByYear() throws IOException {
+        return db.aggregateGpaByYear(null);
+    }
+}
@@ -0,0 +1,97 @@
+package studentdb.bench;
+
+import org.openjdk.jmh.annotations.*;
+import studentdb.Student;
+import studentdb.StudentDatabase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mutations against a private copy of the dataset. Adds use ids above the
+ * dataset's range. Deletes run in single-shot batches of {@link #DELETE_BATCH},
+ * so their score is the time per batch; the deleted students are put back after
+ * every iteration so the database keeps its size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class WriteBenchmark {
+    private static final int BULK_SIZE = 10_000;
+    private static final int DELETE_BATCH = 1000;
+
+    @Param({"10000", "1000000", "10000000"})
+    public int records;
+
+    private String dbName;
+    private StudentDatabase db;
+    private final SplittableRandom random = new SplittableRandom(DatasetGenerator.DEFAULT_SEED);
+    private final List<Student> deleted = new ArrayList<>();
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        dbName = DatasetGenerator.copyOf(records);
+        db = new StudentDatabase(dbName);
+        nextId = records;
+    }
+
+    @TearDown(Level.Iteration)
+    public void restoreDeleted() throws IOException {
+        db.addStudents(deleted);
+        deleted.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        db.close();
+        DatasetGenerator.deleteDatabase(dbName);
+    }
+
+    private Student newStudent() {
+        Student s = DatasetGenerator.student(DatasetGenerator.DEFAULT_SEED, nextId);
+        nextId++;
+        return s;
+    }
+
+    @Benchmark
+    public boolean addStudent() throws IOException {
+        return db.addStudent(newStudent());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BULK_SIZE)
+    public int addStudentsBulk() throws IOException {
+        List<Student> batch = new ArrayList<>(BULK_SIZE);
+        for (int i = 0; i < BULK_SIZE; i++) {
+            batch.add(newStudent());
+        }
+        return db.addStudents(batch);
+    }
+
+    @Benchmark
+    public void updateStudent() throws IOException {
+        int id = random.nextInt(records);
+        Student s = DatasetGenerator.student(DatasetGenerator.DEFAULT_SEED, id);
+        s.setGpa(random.nextInt(401) / 100.0);
+        db.updateStudent(s);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3, batchSize = DELETE_BATCH)
+    @Measurement(iterations = 10, batchSize = DELETE_BATCH)
+    public boolean deleteStudentById() throws IOException {
+        int id = random.nextInt(records);
+        Student s = db.findStudentById(id);
+        if (s == null) return false;
+        deleted.add(s);
+        return db.deleteStudentById(id);
+    }
+}